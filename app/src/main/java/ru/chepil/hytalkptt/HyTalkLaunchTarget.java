@@ -0,0 +1,91 @@
+package ru.chepil.hytalkptt;
+
+import android.app.ActivityManager;
+import android.content.Context;
+import android.content.Intent;
+import android.util.Log;
+
+import java.util.List;
+
+import ru.chepil.hytalkptt.core.LaunchTarget;
+
+/**
+ * Launches HyTalk through the cached HyTalkResolver target.
+ */
+final class HyTalkLaunchTarget implements LaunchTarget {
+
+    private static final String TAG = "HyTalkLaunchTarget";
+
+    private final Context context;
+    private final HyTalkResolver hyTalkResolver;
+
+    HyTalkLaunchTarget(Context context, HyTalkResolver hyTalkResolver) {
+        this.context = context;
+        this.hyTalkResolver = hyTalkResolver;
+    }
+
+    @Override
+    public boolean isAvailable() {
+        if (hyTalkResolver.getComponent() == null) {
+            Log.w(TAG, "HyTalk app not found - cannot launch");
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Looks for a running HyTalk process. Newer Android versions only list the caller's
+     * own processes here, so "not found" can also mean "unknown". The press handler
+     * then treats HyTalk as cold until it has seen HyTalk's window once.
+     * Only asked on a launch while HyTalk's window has not been seen yet.
+     */
+    @Override
+    public boolean isRunning() {
+        String packageName = hyTalkResolver.getPackageName();
+        ActivityManager activityManager = (ActivityManager) context.getSystemService(Context.ACTIVITY_SERVICE);
+        if (packageName == null || activityManager == null) {
+            return false;
+        }
+        try {
+            List<ActivityManager.RunningAppProcessInfo> processes = activityManager.getRunningAppProcesses();
+            if (processes == null) {
+                return false;
+            }
+            for (ActivityManager.RunningAppProcessInfo process : processes) {
+                if (process.pkgList == null) {
+                    continue;
+                }
+                for (String pkg : process.pkgList) {
+                    if (packageName.equals(pkg)) {
+                        return true;
+                    }
+                }
+            }
+        } catch (Exception e) {
+            Log.w(TAG, "Failed to query running processes: " + e.getMessage());
+        }
+        return false;
+    }
+
+    /**
+     * Launches HyTalk app directly or brings it to foreground if already running.
+     * This is called when PTT button is pressed to ensure HyTalk is active.
+     */
+    @Override
+    public boolean launch() {
+        try {
+            Intent launchIntent = hyTalkResolver.getLaunchIntent();
+            if (launchIntent == null) {
+                return false;
+            }
+            context.startActivity(launchIntent);
+            if (PttLog.isVerbose()) {
+                Log.d(TAG, "Launched/brought HyTalk to foreground");
+            }
+            return true;
+        } catch (Exception e) {
+            Log.e(TAG, "Error launching HyTalk", e);
+            return false;
+        }
+    }
+}
@@ -0,0 +1,251 @@
+package ru.chepil.hytalkptt;
+
+import android.content.BroadcastReceiver;
+import android.content.ComponentName;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.content.pm.PackageManager;
+import android.content.pm.ResolveInfo;
+import android.net.Uri;
+import android.util.Log;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Resolves the HyTalk launch target once and caches it for the whole process.
+ * Shared by MainActivity and PTTAccessibilityService so a PTT press never has to
+ * go through PackageManager. The cache is dropped only on PACKAGE_ADDED,
+ * PACKAGE_REMOVED and PACKAGE_REPLACED broadcasts.
+ *
+ * Cache hits are counted with a lock-free increment (callers are the main, dispatch
+ * and activity threads); misses and invalidations are counted under the lock.
+ */
+public final class HyTalkResolver {
+
+    private static final String TAG = "HyTalkResolver";
+
+    // HyTalk package names
+    private static final String[] POSSIBLE_PACKAGE_NAMES = {
+            "com.hytera.ocean"
+    };
+
+    private static HyTalkResolver instance;
+
+    private final Context appContext;
+    private final Object lock = new Object();
+
+    // Result of the last resolution; null until resolved or after invalidation
+    private volatile Target target;
+
+    private final AtomicLong hits = new AtomicLong();
+    private volatile long misses;
+    private volatile long invalidations;
+
+    // Told about each invalidation, e.g. so the dispatcher stops treating HyTalk as running
+    private volatile Runnable invalidationListener;
+
+    /**
+     * Immutable resolution result. A "not found" result is cached as well,
+     * so a device without HyTalk does not scan all launcher apps on every press.
+     */
+    private static final class Target {
+        final ComponentName component; // null if HyTalk is not installed
+        final Intent launchIntent;     // prebuilt with foreground flags, never handed out directly
+
+        Target(ComponentName component, Intent launchIntent) {
+            this.component = component;
+            this.launchIntent = launchIntent;
+        }
+    }
+
+    private final BroadcastReceiver packageReceiver = new BroadcastReceiver() {
+        @Override
+        public void onReceive(Context context, Intent intent) {
+            Uri data = intent.getData();
+            String packageName = data != null ? data.getSchemeSpecificPart() : null;
+            Target current = target;
+            if (current != null && current.component != null
+                    && !current.component.getPackageName().equals(packageName)
+                    && !isCandidatePackage(packageName)) {
+                // Unrelated package changed - resolved HyTalk target stays valid
+                return;
+            }
+            Log.d(TAG, intent.getAction() + " for " + packageName + " - invalidating HyTalk target");
+            invalidate();
+        }
+    };
+
+    private HyTalkResolver(Context context) {
+        appContext = context.getApplicationContext();
+
+        IntentFilter filter = new IntentFilter();
+        filter.addAction(Intent.ACTION_PACKAGE_ADDED);
+        filter.addAction(Intent.ACTION_PACKAGE_REMOVED);
+        filter.addAction(Intent.ACTION_PACKAGE_REPLACED);
+        filter.addDataScheme("package");
+        appContext.registerReceiver(packageReceiver, filter);
+    }
+
+    public static synchronized HyTalkResolver getInstance(Context context) {
+        if (instance == null) {
+            instance = new HyTalkResolver(context);
+        }
+        return instance;
+    }
+
+    /**
+     * Returns a copy of the prebuilt HyTalk launch intent
+     * (NEW_TASK | CLEAR_TOP | SINGLE_TOP | REORDER_TO_FRONT).
+     *
+     * @return Intent to launch HyTalk, or null if not installed
+     */
+    public Intent getLaunchIntent() {
+        Target t = resolve();
+        // Copy: startActivity may modify the intent it is given
+        return t.launchIntent != null ? new Intent(t.launchIntent) : null;
+    }
+
+    /**
+     * @return HyTalk launch component, or null if not installed
+     */
+    public ComponentName getComponent() {
+        return resolve().component;
+    }
+
+    /**
+     * @return HyTalk package name, or null if not installed
+     */
+    public String getPackageName() {
+        ComponentName component = resolve().component;
+        return component != null ? component.getPackageName() : null;
+    }
+
+    /**
+     * Drops the cached target; the next call resolves it again.
+     */
+    public void invalidate() {
+        synchronized (lock) {
+            target = null;
+            invalidations++;
+        }
+        Runnable listener = invalidationListener;
+        if (listener != null) {
+            listener.run();
+        }
+    }
+
+    /**
+     * Sets the single listener run after each invalidation, on the invalidating thread.
+     */
+    public void setInvalidationListener(Runnable listener) {
+        invalidationListener = listener;
+    }
+
+    /**
+     * Clears the invalidation listener if it is still the given one.
+     */
+    public void removeInvalidationListener(Runnable listener) {
+        synchronized (lock) {
+            if (invalidationListener == listener) {
+                invalidationListener = null;
+            }
+        }
+    }
+
+    /** Lookups answered from the cached target. */
+    public long getHits() {
+        return hits.get();
+    }
+
+    /** Lookups that had to go to PackageManager. */
+    public long getMisses() {
+        return misses;
+    }
+
+    public long getInvalidations() {
+        return invalidations;
+    }
+
+    private Target resolve() {
+        Target t = target;
+        if (t != null) {
+            hits.incrementAndGet();
+            return t;
+        }
+        synchronized (lock) {
+            t = target;
+            if (t == null) {
+                misses++;
+                t = lookup();
+                target = t;
+            } else {
+                hits.incrementAndGet();
+            }
+            return t;
+        }
+    }
+
+    private Target lookup() {
+        PackageManager pm = appContext.getPackageManager();
+        Intent launchIntent = findHyTalkApp(pm);
+        if (launchIntent == null || launchIntent.getComponent() == null) {
+            Log.w(TAG, "HyTalk app not found");
+            return new Target(null, null);
+        }
+
+        // Add flags to bring app to foreground or launch if not running
+        launchIntent.addFlags(Intent.FLAG_ACTIVITY_NEW_TASK);
+        launchIntent.addFlags(Intent.FLAG_ACTIVITY_CLEAR_TOP);
+        launchIntent.addFlags(Intent.FLAG_ACTIVITY_SINGLE_TOP);
+        launchIntent.addFlags(Intent.FLAG_ACTIVITY_REORDER_TO_FRONT);
+
+        Log.d(TAG, "Resolved HyTalk target: " + launchIntent.getComponent().flattenToShortString());
+        return new Target(launchIntent.getComponent(), launchIntent);
+    }
+
+    /**
+     * Finds the HyTalk app launch intent.
+     * @return Intent to launch HyTalk, or null if not found
+     */
+    private Intent findHyTalkApp(PackageManager pm) {
+        // First, try the known package names
+        for (String packageName : POSSIBLE_PACKAGE_NAMES) {
+            Intent launchIntent = pm.getLaunchIntentForPackage(packageName);
+            if (launchIntent != null) {
+                Log.d(TAG, "Found HyTalk app: " + packageName);
+                return launchIntent;
+            }
+        }
+
+        // If not found, search through all installed packages
+        Intent mainIntent = new Intent(Intent.ACTION_MAIN, null);
+        mainIntent.addCategory(Intent.CATEGORY_LAUNCHER);
+        List<ResolveInfo> apps = pm.queryIntentActivities(mainIntent, 0);
+
+        for (ResolveInfo info : apps) {
+            String packageName = info.activityInfo.packageName;
+            if (isCandidatePackage(packageName)) {
+                Log.d(TAG, "Found potential HyTalk app: " + packageName);
+                Intent launchIntent = pm.getLaunchIntentForPackage(packageName);
+                if (launchIntent != null) {
+                    return launchIntent;
+                }
+            }
+        }
+
+        return null;
+    }
+
+    private boolean isCandidatePackage(String packageName) {
+        if (packageName == null) {
+            return false;
+        }
+        String lower = packageName.toLowerCase();
+        if (lower.equals(appContext.getPackageName().toLowerCase())) {
+            return false; // Exclude ourselves (ru.chepil.hytalkptt contains "hytalk")
+        }
+        return lower.contains("hytera") || lower.contains("hytalk");
+    }
+}
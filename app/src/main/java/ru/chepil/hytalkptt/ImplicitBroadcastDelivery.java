@@ -0,0 +1,56 @@
+package ru.chepil.hytalkptt;
+
+import android.content.Context;
+import android.content.Intent;
+import android.util.Log;
+
+/**
+ * Sends Broadcast Intent for HyTalk PTT button.
+ * Based on pttremap app logic: sends "android.intent.action.PTT_DOWN" or "PTT_UP"
+ * to every receiver on the system.
+ */
+final class ImplicitBroadcastDelivery implements PttDelivery {
+
+    private static final String TAG = "ImplicitBroadcast";
+
+    // Probe action nobody listens to: exercises the same sendBroadcast path as PTT
+    static final String ACTION_PROBE = "ru.chepil.hytalkptt.action.DELIVERY_PROBE";
+
+    private final Context context;
+
+    ImplicitBroadcastDelivery(Context context) {
+        this.context = context;
+    }
+
+    @Override
+    public String getName() {
+        return "implicit_broadcast";
+    }
+
+    @Override
+    public boolean probe() {
+        try {
+            context.sendBroadcast(new Intent(ACTION_PROBE));
+            return true;
+        } catch (Exception e) {
+            Log.w(TAG, "Probe failed: " + e.getMessage());
+            return false;
+        }
+    }
+
+    @Override
+    public boolean send(boolean down) {
+        try {
+            String action = down ? ACTION_PTT_DOWN : ACTION_PTT_UP;
+            Intent intent = new Intent(action);
+            context.sendBroadcast(intent);
+            if (PttLog.isVerbose()) {
+                Log.d(TAG, "Sent PTT Broadcast Intent: " + action);
+            }
+            return true;
+        } catch (Exception e) {
+            Log.e(TAG, "Error sending PTT Broadcast Intent", e);
+            return false;
+        }
+    }
+}
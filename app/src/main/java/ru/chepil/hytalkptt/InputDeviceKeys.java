@@ -0,0 +1,106 @@
+package ru.chepil.hytalkptt;
+
+import android.content.Context;
+import android.hardware.input.InputManager;
+import android.os.Handler;
+import android.util.Log;
+import android.view.InputDevice;
+
+import java.util.Map;
+
+import ru.chepil.hytalkptt.core.DeviceKeyMap;
+import ru.chepil.hytalkptt.core.KeyActionTable;
+import ru.chepil.hytalkptt.core.PressHandler;
+
+/**
+ * Keeps PressHandler's per-device key overrides in sync with the connected input devices.
+ * Overrides are stored per input device descriptor (stable across reconnects and reboots),
+ * but key events only carry the runtime device id; the DeviceKeyMap is therefore rebuilt
+ * from the current devices when one is added, removed or changed, and when the settings
+ * change. The key path itself never touches InputManager.
+ */
+final class InputDeviceKeys implements InputManager.InputDeviceListener {
+
+    private static final String TAG = "InputDeviceKeys";
+
+    private final Context context;
+    private final PressHandler pressHandler;
+    private final InputManager inputManager;
+
+    private Map<String, KeyActionTable> mappings;
+    private volatile long rebuilds;
+
+    InputDeviceKeys(Context context, PressHandler pressHandler) {
+        this.context = context;
+        this.pressHandler = pressHandler;
+        this.inputManager = (InputManager) context.getSystemService(Context.INPUT_SERVICE);
+    }
+
+    /**
+     * Starts listening for device changes; reload() builds the first map.
+     * Callbacks arrive on the calling thread's looper (the main thread).
+     */
+    void start() {
+        if (inputManager != null) {
+            inputManager.registerInputDeviceListener(this, new Handler());
+        }
+    }
+
+    void stop() {
+        if (inputManager != null) {
+            inputManager.unregisterInputDeviceListener(this);
+        }
+    }
+
+    /**
+     * Re-reads the saved overrides after a settings change.
+     */
+    void reload() {
+        mappings = PttPreferences.getDeviceKeyActions(context);
+        rebuild();
+    }
+
+    long getRebuilds() {
+        return rebuilds;
+    }
+
+    @Override
+    public void onInputDeviceAdded(int deviceId) {
+        rebuild();
+    }
+
+    @Override
+    public void onInputDeviceRemoved(int deviceId) {
+        rebuild();
+    }
+
+    @Override
+    public void onInputDeviceChanged(int deviceId) {
+        rebuild();
+    }
+
+    private void rebuild() {
+        Map<String, KeyActionTable> current = mappings;
+        if (current == null || current.isEmpty()) {
+            pressHandler.setDeviceKeys(DeviceKeyMap.EMPTY);
+            return;
+        }
+        DeviceKeyMap.Builder builder = new DeviceKeyMap.Builder();
+        int devices = 0;
+        for (int deviceId : InputDevice.getDeviceIds()) {
+            InputDevice device = InputDevice.getDevice(deviceId);
+            KeyActionTable table = device != null ? current.get(device.getDescriptor()) : null;
+            if (table == null) {
+                continue;
+            }
+            devices++;
+            for (int keyCode = table.nextMappedKey(0); keyCode >= 0; keyCode = table.nextMappedKey(keyCode + 1)) {
+                builder.put(deviceId, keyCode, table.actionFor(keyCode));
+            }
+        }
+        DeviceKeyMap map = builder.build();
+        pressHandler.setDeviceKeys(map);
+        rebuilds++;
+        Log.d(TAG, "Device key overrides rebuilt: " + map.size() + " keys on " + devices + " connected devices");
+    }
+}
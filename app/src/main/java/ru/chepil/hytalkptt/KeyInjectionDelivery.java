@@ -0,0 +1,144 @@
+package ru.chepil.hytalkptt;
+
+import android.content.Context;
+import android.os.Build;
+import android.os.SystemClock;
+import android.util.Log;
+import android.view.InputDevice;
+import android.view.InputEvent;
+import android.view.KeyCharacterMap;
+import android.view.KeyEvent;
+
+import java.lang.reflect.Method;
+
+/**
+ * Delivers PTT by injecting REMAPPED_PTT_KEYCODE (142, F12 - the keycode HyTalk expects)
+ * through the hidden InputManager.injectInputEvent. Requires system privileges
+ * (INJECT_EVENTS) on most devices; probe() finds out without sending a PTT key.
+ *
+ * The reflective Method, its argument array and the boxed inject mode are built
+ * once, and the Boolean result is compared without unboxing. Each send still creates
+ * one KeyEvent: the input dispatcher drops key events with stale timestamps, so a
+ * prebuilt event cannot be reused across presses.
+ */
+final class KeyInjectionDelivery implements PttDelivery {
+
+    private static final String TAG = "KeyInjection";
+
+    private static final int REMAPPED_PTT_KEYCODE = 142; // Keycode that HyTalk expects (F12)
+
+    // InputManager.INJECT_INPUT_EVENT_MODE_ASYNC = 0
+    // InputManager.INJECT_INPUT_EVENT_MODE_WAIT_FOR_RESULT = 1
+    private static final Integer INJECT_MODE_ASYNC = 0;
+
+    private final Context context;
+
+    // InputManager for key remapping on newer Android versions
+    private Object inputManager;
+    private Method injectInputEventMethod;
+    private Object[] injectArgs;
+
+    // downTime of the last injected DOWN, carried by the matching UP
+    private long downTime;
+
+    KeyInjectionDelivery(Context context) {
+        this.context = context;
+    }
+
+    @Override
+    public String getName() {
+        return "key_injection";
+    }
+
+    /**
+     * Initializes InputManager using reflection and injects a harmless KEYCODE_UNKNOWN
+     * release to check that this app may inject events.
+     */
+    @Override
+    public boolean probe() {
+        // InputManager injection only used on API 23+ (Marshmallow)
+        // Note: Build.VERSION_CODES.M is not available in SDK 22, so we use numeric value
+        if (Build.VERSION.SDK_INT < 23) {
+            return false;
+        }
+        if (!initInputManager()) {
+            return false;
+        }
+        long now = SystemClock.uptimeMillis();
+        return inject(newKeyEvent(now, now, KeyEvent.ACTION_UP, KeyEvent.KEYCODE_UNKNOWN));
+    }
+
+    @Override
+    public boolean send(boolean down) {
+        if (injectInputEventMethod == null) {
+            return false; // InputManager not initialized
+        }
+        long now = SystemClock.uptimeMillis();
+        if (down) {
+            downTime = now;
+        }
+        int action = down ? KeyEvent.ACTION_DOWN : KeyEvent.ACTION_UP;
+        return inject(newKeyEvent(downTime, now, action, REMAPPED_PTT_KEYCODE));
+    }
+
+    private boolean initInputManager() {
+        if (injectInputEventMethod != null) {
+            return true;
+        }
+        try {
+            // Get InputManager service (it's not in public API, so we use getSystemService)
+            inputManager = context.getSystemService(Context.INPUT_SERVICE);
+            if (inputManager == null) {
+                Log.w(TAG, "InputManager service not available");
+                return false;
+            }
+            // Get injectInputEvent method using reflection (it's a hidden method)
+            injectInputEventMethod = inputManager.getClass().getMethod(
+                    "injectInputEvent",
+                    InputEvent.class,
+                    int.class
+            );
+            injectArgs = new Object[] {null, INJECT_MODE_ASYNC};
+            Log.d(TAG, "InputManager initialized for key remapping (Android " + Build.VERSION.SDK_INT + ")");
+            return true;
+        } catch (Exception e) {
+            Log.w(TAG, "Failed to initialize InputManager for key remapping: " + e.getMessage());
+            inputManager = null;
+            injectInputEventMethod = null;
+            return false;
+        }
+    }
+
+    private boolean inject(KeyEvent event) {
+        try {
+            injectArgs[0] = event;
+            // invoke() returns the cached Boolean.TRUE/FALSE instances
+            Object result = injectInputEventMethod.invoke(inputManager, injectArgs);
+            if (Boolean.TRUE.equals(result)) {
+                return true;
+            }
+            Log.w(TAG, "KeyEvent injection failed (may require system privileges)");
+            return false;
+        } catch (Exception e) {
+            Log.w(TAG, "Exception while injecting KeyEvent: " + e.getMessage());
+            return false;
+        } finally {
+            injectArgs[0] = null;
+        }
+    }
+
+    private static KeyEvent newKeyEvent(long downTime, long eventTime, int action, int keyCode) {
+        return new KeyEvent(
+                downTime, // downTime
+                eventTime, // eventTime
+                action, // action
+                keyCode, // code
+                0, // repeat
+                0, // metaState
+                KeyCharacterMap.VIRTUAL_KEYBOARD, // deviceId
+                0, // scancode
+                KeyEvent.FLAG_FROM_SYSTEM, // flags
+                InputDevice.SOURCE_KEYBOARD // source
+        );
+    }
+}
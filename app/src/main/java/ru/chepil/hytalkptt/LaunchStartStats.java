@@ -0,0 +1,75 @@
+package ru.chepil.hytalkptt;
+
+import android.os.SystemClock;
+import android.util.Log;
+
+import ru.chepil.hytalkptt.core.DispatchPolicy;
+import ru.chepil.hytalkptt.core.LatencyHistogram;
+
+/**
+ * Start-to-launch time of the activities that Programmable Keys can start:
+ * from the entry activity's onCreate until the HyTalk launch has been issued.
+ * Split by entry point and by cold (first activity start in this process) or warm start,
+ * so the layout-free PttLaunchActivity can be compared with MainActivity.
+ * The time from onCreate until the press was dispatched is also kept per
+ * DispatchPolicy, including presses where no launch was needed.
+ *
+ * Written on the main thread only; dumps from other threads see approximate values.
+ */
+final class LaunchStartStats {
+
+    private static final String TAG = "LaunchStartStats";
+
+    static final int ENTRY_FAST = 0; // PttLaunchActivity
+    static final int ENTRY_MAIN = 1; // MainActivity PTT path
+
+    private static final String[] ENTRY_NAMES = {"fast", "main"};
+
+    // [entry][0 = cold, 1 = warm]
+    private static final LatencyHistogram[][] histograms = {
+            {new LatencyHistogram(), new LatencyHistogram()},
+            {new LatencyHistogram(), new LatencyHistogram()}
+    };
+
+    private static final DispatchPolicy dispatchPolicy = new DispatchPolicy();
+
+    private static boolean processWarm;
+
+    private LaunchStartStats() {}
+
+    /**
+     * @param entry     ENTRY_FAST or ENTRY_MAIN
+     * @param startTime uptime millis at the start of onCreate
+     */
+    static void record(int entry, long startTime) {
+        long elapsed = SystemClock.uptimeMillis() - startTime;
+        boolean cold = !processWarm;
+        processWarm = true;
+        LatencyHistogram histogram = histograms[entry][cold ? 0 : 1];
+        histogram.record(elapsed);
+        if (PttLog.isVerbose() || cold) {
+            Log.i(TAG, ENTRY_NAMES[entry] + (cold ? " cold" : " warm") + " start: " + elapsed + "ms");
+        }
+    }
+
+    /**
+     * @param policy    DispatchPolicy.POLICY_ constant chosen for the press
+     * @param startTime uptime millis at the start of onCreate
+     */
+    static void recordPolicy(int policy, long startTime) {
+        dispatchPolicy.record(policy, SystemClock.uptimeMillis() - startTime);
+    }
+
+    static void appendReport(StringBuilder sb) {
+        sb.append("activity start to launch:\n");
+        for (int entry = 0; entry < ENTRY_NAMES.length; entry++) {
+            for (int warm = 0; warm < 2; warm++) {
+                sb.append("  ").append(ENTRY_NAMES[entry]).append(warm == 0 ? " cold: " : " warm: ");
+                histograms[entry][warm].appendSummary(sb);
+                sb.append('\n');
+            }
+        }
+        sb.append("activity start to dispatch, by policy:\n");
+        dispatchPolicy.appendReport(sb);
+    }
+}
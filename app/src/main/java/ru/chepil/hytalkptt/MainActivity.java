@@ -8,6 +8,7 @@ import android.content.Intent;
 import android.content.pm.PackageManager;
 import android.content.pm.ResolveInfo;
 import android.os.Bundle;
+import android.os.SystemClock;
 import android.provider.Settings;
 import android.support.v7.app.AppCompatActivity;
 import android.util.Log;
@@ -19,24 +20,22 @@ import android.widget.Toast;
 
 import java.util.List;
 
+import ru.chepil.hytalkptt.core.DispatchPolicy;
+import ru.chepil.hytalkptt.core.PressCoordinator;
+
 public class MainActivity extends AppCompatActivity {
 
     private static final String TAG = "MainActivity";
-    private static final String[] POSSIBLE_PACKAGE_NAMES = {
-            "com.hytera.ocean"
-    };
-    
-    // Static flag to communicate with accessibility service
-    public static volatile boolean isPTTButtonPressed = false;
     
-    // Track if HyTalk has been launched for the current PTT press
-    private boolean hyTalkLaunched = false;
+    // Press state shared with the accessibility service and PttLaunchActivity
+    static final PressCoordinator PRESS_COORDINATOR = new PressCoordinator();
     
-    // Track previous state of isPTTButtonPressed to detect new presses
-    private boolean wasPTTButtonPressed = false;
+    // Press this activity was started for; its launch is claimed from PRESS_COORDINATOR
+    private long pressGeneration = PressCoordinator.NO_GENERATION;
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
+        long startTime = SystemClock.uptimeMillis();
         super.onCreate(savedInstanceState);
         
         try {
@@ -56,7 +55,7 @@ public class MainActivity extends AppCompatActivity {
             
             setupSettingsButtons();
 
-            if (isLauncherLaunch && !isPTTButtonPressed) {
+            if (isLauncherLaunch && !PRESS_COORDINATOR.isPressed()) {
                 if (!isAccessibilityServiceEnabled) {
                     Log.d(TAG, "Launched from launcher - accessibility not enabled, showing setup");
                     showSetupInstructions();
@@ -78,14 +77,17 @@ public class MainActivity extends AppCompatActivity {
             if (btnAccessibility != null) btnAccessibility.setVisibility(View.VISIBLE);
             if (btnPttKey != null) btnPttKey.setVisibility(View.VISIBLE);
 
-            isPTTButtonPressed = true;
-            wasPTTButtonPressed = false;
-            launchHyTalkIfNeeded();
+            // Joins the press the accessibility service already saw, if any
+            pressGeneration = PRESS_COORDINATOR.join(startTime);
+            boolean launched = launchHyTalkIfNeeded(startTime);
             moveTaskToBack(true);
+            if (launched) {
+                LaunchStartStats.record(LaunchStartStats.ENTRY_MAIN, startTime);
+            }
         } catch (Exception e) {
             Log.e(TAG, "Error in onCreate", e);
             Toast.makeText(this, "Error: " + e.getMessage(), Toast.LENGTH_LONG).show();
-            isPTTButtonPressed = false; // Reset flag on error
+            PRESS_COORDINATOR.leave(pressGeneration); // End the press on error
         }
     }
     
@@ -272,55 +274,74 @@ public class MainActivity extends AppCompatActivity {
     public void onWindowFocusChanged(boolean hasFocus) {
         super.onWindowFocusChanged(hasFocus);
         
-        // Check if this is a new PTT press (flag changed from false to true)
-        if (isPTTButtonPressed && !wasPTTButtonPressed) {
-            // New PTT press detected - reset launch flag
-            hyTalkLaunched = false;
-        }
-        wasPTTButtonPressed = isPTTButtonPressed;
-        
-        if (hasFocus && isPTTButtonPressed && !hyTalkLaunched) {
-            // Activity returned to foreground while PTT is pressed
-            // Launch/bring HyTalk to foreground (will bring to foreground if already running)
-            launchHyTalkIfNeeded();
+        if (hasFocus && PRESS_COORDINATOR.isPressed()) {
+            // Activity returned to foreground while PTT is pressed: follow the current press.
+            // Its launch is claimed once, whichever path (service or activity) gets there first
+            pressGeneration = PRESS_COORDINATOR.generation();
+            if (!launchHyTalkIfNeeded(SystemClock.uptimeMillis())) {
+                // Already launched for this press; just get out of HyTalk's way
+                moveTaskToBack(true);
+            }
         }
     }
     
     @Override
     protected void onDestroy() {
         super.onDestroy();
-        // Reset flag when activity is destroyed
-        isPTTButtonPressed = false;
-        hyTalkLaunched = false;
-        Log.d(TAG, "MainActivity destroyed - PTT flag reset");
+        // Ends the press only if this activity started it and no newer press has begun
+        PRESS_COORDINATOR.leave(pressGeneration);
+        Log.d(TAG, "MainActivity destroyed - press " + pressGeneration + " left");
     }
 
-    private void launchHyTalkIfNeeded() {
-        // If PTT flag is false, reset launch flag (accessibility service may have reset it)
-        if (!isPTTButtonPressed) {
-            hyTalkLaunched = false;
-            wasPTTButtonPressed = false; // Reset to detect next new press
-            return;
+    /**
+     * Dispatch policy for a press that reached an activity through Programmable Keys.
+     * Activities only launch: with the device locked or dark and HyTalk running, the
+     * launch is left out and the accessibility service's PTT_DOWN reaches HyTalk alone.
+     * Screen and keyguard come from the service's tracked state, so no system service is
+     * asked per press; without the service HyTalk is not known to run and is launched.
+     */
+    static int chooseDispatchPolicy() {
+        ScreenState device = PTTAccessibilityService.getScreenState();
+        if (device == null || !PTTAccessibilityService.isHyTalkSeen()) {
+            return DispatchPolicy.choose(true, false, false, false, false);
+        }
+        boolean screenOn = device.isScreenOn();
+        boolean locked = screenOn && device.isLocked();
+        return DispatchPolicy.choose(screenOn, locked, false, true, false);
+    }
+
+    /**
+     * Launches HyTalk for pressGeneration unless another path already did, or the
+     * dispatch policy leaves the press to the PTT broadcast.
+     *
+     * @param startTime uptime millis the activity started handling the press
+     * @return true if HyTalk was started from here
+     */
+    private boolean launchHyTalkIfNeeded(long startTime) {
+        // Exactly one path launches per press; stale generations are refused as well
+        if (!PRESS_COORDINATOR.claimLaunch(pressGeneration)) {
+            Log.d(TAG, "HyTalk already launched for press " + pressGeneration);
+            return false;
         }
-        
-        // Always try to launch/bring HyTalk to foreground when PTT is pressed
-        // Intent flags will bring it to foreground if already running, or launch if not
 
-        // Try to find HyTalk app
-        Intent launchIntent = findHyTalkApp();
+        int policy = chooseDispatchPolicy();
+        if (!DispatchPolicy.launches(policy)) {
+            // Claimed anyway, so the service does not launch over the keyguard either
+            Log.d(TAG, "Device locked - press " + pressGeneration + " left to the PTT broadcast");
+            LaunchStartStats.recordPolicy(policy, startTime);
+            return false;
+        }
+
+        // Cached HyTalk launch intent, already carries the bring-to-foreground flags
+        Intent launchIntent = HyTalkResolver.getInstance(this).getLaunchIntent();
         if (launchIntent != null) {
-            // Add flags to bring app to foreground
-            launchIntent.addFlags(Intent.FLAG_ACTIVITY_NEW_TASK);
-            launchIntent.addFlags(Intent.FLAG_ACTIVITY_CLEAR_TOP);
-            launchIntent.addFlags(Intent.FLAG_ACTIVITY_SINGLE_TOP);
-            launchIntent.addFlags(Intent.FLAG_ACTIVITY_REORDER_TO_FRONT);
-            
             try {
                 startActivity(launchIntent);
-                hyTalkLaunched = true; // Mark as launched
+                LaunchStartStats.recordPolicy(policy, startTime);
 
                 // Move MainActivity to background so HyTalk stays in foreground
                 moveTaskToBack(true);
+                return true;
             } catch (Exception e) {
                 Log.e(TAG, "Failed to start HyTalk app", e);
                 Toast.makeText(this, "Failed to launch: " + e.getMessage(), Toast.LENGTH_LONG).show();
@@ -328,50 +349,14 @@ public class MainActivity extends AppCompatActivity {
                 if (statusText != null) {
                     statusText.setText("Failed to launch!\n" + e.getMessage());
                 }
-                isPTTButtonPressed = false; // Reset flag on error
-                hyTalkLaunched = false;
+                PRESS_COORDINATOR.leave(pressGeneration); // End the press on error
             }
         } else {
             Log.w(TAG, "HyTalk app not found - staying on MainActivity");
-            isPTTButtonPressed = false;
-            hyTalkLaunched = false;
+            PRESS_COORDINATOR.leave(pressGeneration);
             // No toast, no search; just keep MainActivity visible
         }
-    }
-
-    private Intent findHyTalkApp() {
-        PackageManager pm = getPackageManager();
-        
-        // First, try the known package names
-        for (String packageName : POSSIBLE_PACKAGE_NAMES) {
-            Intent launchIntent = pm.getLaunchIntentForPackage(packageName);
-            if (launchIntent != null) {
-                return launchIntent;
-            }
-        }
-        
-        // If not found, search through all installed packages
-        Intent mainIntent = new Intent(Intent.ACTION_MAIN, null);
-        mainIntent.addCategory(Intent.CATEGORY_LAUNCHER);
-        List<ResolveInfo> apps = pm.queryIntentActivities(mainIntent, 0);
-        
-        String selfPackage = getPackageName().toLowerCase();
-        for (ResolveInfo info : apps) {
-            String packageName = info.activityInfo.packageName.toLowerCase();
-            if (packageName.equals(selfPackage)) {
-                continue; // Exclude ourselves (ru.chepil.hytalkptt contains "hytalk")
-            }
-            if (packageName.contains("hytera") || packageName.contains("hytalk")) {
-                Log.d(TAG, "Found potential HyTalk app: " + packageName);
-                Intent launchIntent = pm.getLaunchIntentForPackage(info.activityInfo.packageName);
-                if (launchIntent != null) {
-                    Log.d(TAG, "Launching with package: " + info.activityInfo.packageName);
-                    return launchIntent;
-                }
-            }
-        }
-        
-        return null;
+        return false;
     }
 
     private void searchForHyTalkPackages() {
@@ -2,22 +2,36 @@ package ru.chepil.hytalkptt;
 
 import android.accessibilityservice.AccessibilityService;
 import android.accessibilityservice.AccessibilityServiceInfo;
-import android.content.Context;
-import android.content.Intent;
-import android.content.pm.PackageManager;
-import android.content.pm.ResolveInfo;
-import android.os.Build;
+import android.content.SharedPreferences;
+import android.os.SystemClock;
 import android.util.Log;
-import android.view.InputDevice;
 import android.view.KeyEvent;
 import android.view.accessibility.AccessibilityEvent;
 
-import java.lang.reflect.Method;
-import java.util.List;
+import java.io.File;
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintWriter;
+
+import ru.chepil.hytalkptt.core.EventRateCounter;
+import ru.chepil.hytalkptt.core.KeyActionTable;
+import ru.chepil.hytalkptt.core.KeyDiscovery;
+import ru.chepil.hytalkptt.core.KeyTraceRecorder;
+import ru.chepil.hytalkptt.core.PressCoordinator;
+import ru.chepil.hytalkptt.core.PressHandler;
 
 public class PTTAccessibilityService extends AccessibilityService {
 
     private static final String TAG = "PTTAccessibilityService";
+
+    // Event profiles. Only window-state changes are subscribed, and only for foreground
+    // tracking. While idle the system coalesces them for a while (fewer binder calls
+    // and wakeups, the last state still arrives); during a press they are delivered
+    // at once, so the launch is seen and timed without delay.
+    private static final long IDLE_NOTIFICATION_TIMEOUT_MS = 250;
+    private static final long PRESS_NOTIFICATION_TIMEOUT_MS = 0;
     // Device-specific PTT keycodes (for reference only; actual keycode comes from SharedPreferences)
     //private static final int PTT_KEYCODE1 = 228; // Motorola LEX F10
     //private static final int PTT_KEYCODE2 = 520; // Scanner Urovo DT 30
@@ -26,159 +40,234 @@ public class PTTAccessibilityService extends AccessibilityService {
     //private static final int PTT_KEYCODE5 = 381; // Ulefone Armor 26 WT
     //private static final int PTT_KEYCODE6 = 301; // Ulefone Armor 20 WT
     //private static final int PTT_KEYCODE7 = 131; // Ulefone Armor 18T
-    private static final int REMAPPED_PTT_KEYCODE = 142; // Keycode that HyTalk expects (F12)
-    
-    // InputManager for key remapping on newer Android versions
-    private Object inputManager = null;
-    private Method injectInputEventMethod = null;
-    
-    // HyTalk package names
-    private static final String[] POSSIBLE_PACKAGE_NAMES = {
-            "com.hytera.ocean"
+
+    // Shared, cached HyTalk launch target
+    private HyTalkResolver hyTalkResolver;
+
+    // Launch/broadcast work runs here, off the input callback
+    private PttDispatcher dispatcher;
+
+    // Press-handling core. It keeps a snapshot of the configured key mapping: every key
+    // on the device passes through onKeyEvent, so unmapped keys must be rejected with a
+    // single array lookup instead of a SharedPreferences read. Refreshed by pttPrefsListener.
+    private PressHandler pressHandler;
+
+    // Rebuilds per-device key overrides when input devices come and go
+    private InputDeviceKeys inputDeviceKeys;
+
+    // Key events kept while key capture is on; ~4 minutes of busy keypad use
+    private static final int KEY_CAPTURE_CAPACITY = 4096;
+    private volatile KeyTraceRecorder keyCapture;
+    // Set while PttKeySetupActivity (same process) is open
+    private static volatile KeyDiscovery keyDiscovery;
+    private static volatile boolean connected;
+    // Press handler and tracked screen state of the connected service, for the activities' dispatch policy
+    private static volatile PressHandler connectedPressHandler;
+    private static volatile ScreenState connectedScreenState;
+    // Generation of the PTT press in progress; input thread only
+    private long pressGeneration = PressCoordinator.NO_GENERATION;
+
+    // Service info last applied; switched between the idle and press profiles
+    private volatile AccessibilityServiceInfo serviceInfo;
+
+    // Accessibility events received (main thread only writes)
+    private final EventRateCounter eventRate = new EventRateCounter();
+
+    // Dump counters: single-writer volatile fields, so counting costs onKeyEvent one
+    // increment each. Connects and interrupts survive service restarts in the process
+    private static volatile long connects;
+    private static volatile long interrupts;
+    private volatile long keyEvents;
+    private volatile long keyEventsConsumed;
+
+    private final PttDispatcher.PressListener pressListener = new PttDispatcher.PressListener() {
+        @Override
+        public void onPressActiveChanged(boolean active) {
+            applyEventProfile(active);
+        }
     };
 
+    // Held as a field: SharedPreferences only keeps a weak reference to its listeners
+    private final SharedPreferences.OnSharedPreferenceChangeListener pttPrefsListener =
+            new SharedPreferences.OnSharedPreferenceChangeListener() {
+                @Override
+                public void onSharedPreferenceChanged(SharedPreferences prefs, String key) {
+                    reloadSettings();
+                }
+            };
+
     @Override
     public void onAccessibilityEvent(AccessibilityEvent event) {
-        // Not needed - we only use KeyEvent interception
+        eventRate.record(event.getEventTime());
+        // Track the foreground app so presses can skip launching HyTalk when it is already on top
+        if (event.getEventType() != AccessibilityEvent.TYPE_WINDOW_STATE_CHANGED || dispatcher == null) {
+            return;
+        }
+        CharSequence packageName = event.getPackageName();
+        String hyTalkPackage = hyTalkResolver.getPackageName();
+        boolean hyTalkOnTop = packageName != null && hyTalkPackage != null
+                && hyTalkPackage.contentEquals(packageName);
+        dispatcher.foregroundChanged(hyTalkOnTop, event.getEventTime());
     }
 
     @Override
     public void onInterrupt() {
-        Log.d(TAG, "Service interrupted");
+        interrupts++;
+        Log.d(TAG, "Service interrupted; accessibility events total=" + eventRate.total()
+                + " lastMinute=" + eventRate.perMinute());
+        if (dispatcher != null) {
+            // The press's ACTION_UP may never arrive; do not leave the radio keyed up
+            dispatcher.releaseNow();
+            MainActivity.PRESS_COORDINATOR.keyUp(pressGeneration, SystemClock.uptimeMillis());
+            dispatcher.logLatencyReport();
+            dispatcher.logTrace();
+        }
     }
 
     @Override
     protected void onServiceConnected() {
         super.onServiceConnected();
         Log.d(TAG, "PTT Accessibility Service connected");
+        connected = true;
+        connects++;
+
+        hyTalkResolver = HyTalkResolver.getInstance(this);
+        boolean freshDispatcher = dispatcher == null;
+        if (freshDispatcher) {
+            dispatcher = new PttDispatcher(this, hyTalkResolver, PttPreferences.getPttKeyCode(this));
+            pressHandler = dispatcher.getPressHandler();
+            dispatcher.setPressListener(pressListener);
+            inputDeviceKeys = new InputDeviceKeys(this, pressHandler);
+            inputDeviceKeys.start();
+        }
+        connectedPressHandler = pressHandler;
+        connectedScreenState = dispatcher.getScreenState();
+        PttPreferences.registerListener(this, pttPrefsListener);
+        reloadSettings();
         
         // Configure service to request key event filtering
         AccessibilityServiceInfo info = getServiceInfo();
         if (info != null) {
             info.flags |= AccessibilityServiceInfo.FLAG_REQUEST_FILTER_KEY_EVENTS;
-            setServiceInfo(info);
         } else {
             // Fallback: create new service info
-            AccessibilityServiceInfo serviceInfo = new AccessibilityServiceInfo();
-            serviceInfo.eventTypes = AccessibilityEvent.TYPES_ALL_MASK;
-            serviceInfo.feedbackType = AccessibilityServiceInfo.FEEDBACK_GENERIC;
-            serviceInfo.flags = AccessibilityServiceInfo.FLAG_REQUEST_FILTER_KEY_EVENTS;
-            serviceInfo.notificationTimeout = 100;
-            setServiceInfo(serviceInfo);
+            info = new AccessibilityServiceInfo();
+            info.feedbackType = AccessibilityServiceInfo.FEEDBACK_GENERIC;
+            info.flags = AccessibilityServiceInfo.FLAG_REQUEST_FILTER_KEY_EVENTS;
         }
-        
-        // Initialize InputManager for key remapping on Android >= 23 (Marshmallow)
-        // Note: Build.VERSION_CODES.M is not available in SDK 22, so we use numeric value
-        if (Build.VERSION.SDK_INT >= 23) {
-            initInputManager();
+        // Nothing else is needed: key events come through the filter flag, not the event mask
+        info.eventTypes = AccessibilityEvent.TYPE_WINDOW_STATE_CHANGED;
+        info.notificationTimeout = IDLE_NOTIFICATION_TIMEOUT_MS;
+        serviceInfo = info;
+        setServiceInfo(info);
+
+        // Pick the fastest PTT delivery that works on this device (broadcast or key injection)
+        dispatcher.probeDeliveries();
+        if (freshDispatcher) {
+            // A previous process may have been killed mid-press with HyTalk still keyed up
+            dispatcher.sendRecoveryUp();
         }
     }
     
     /**
-     * Initializes InputManager using reflection for key remapping on newer Android versions.
-     * This allows remapping keycodes 520, 521, 522 to 142 (which HyTalk expects).
+     * Switches between the idle and press event profiles. Runs on the dispatch thread
+     * after the press's PTT signal went out, so the binder call never delays it.
      */
-    private void initInputManager() {
+    private void applyEventProfile(boolean pressActive) {
+        AccessibilityServiceInfo info = serviceInfo;
+        if (info == null) {
+            return;
+        }
+        info.notificationTimeout = pressActive ? PRESS_NOTIFICATION_TIMEOUT_MS : IDLE_NOTIFICATION_TIMEOUT_MS;
         try {
-            // Get InputManager service (it's not in public API, so we use getSystemService)
-            inputManager = getSystemService(Context.INPUT_SERVICE);
-            
-            if (inputManager != null) {
-                // Get injectInputEvent method using reflection (it's a hidden method)
-                Class<?> inputManagerClass = inputManager.getClass();
-                injectInputEventMethod = inputManagerClass.getMethod(
-                    "injectInputEvent", 
-                    android.view.InputEvent.class, 
-                    int.class
-                );
-                
-                Log.d(TAG, "InputManager initialized for key remapping (Android " + Build.VERSION.SDK_INT + ")");
-            } else {
-                Log.w(TAG, "InputManager service not available");
-            }
+            setServiceInfo(info);
         } catch (Exception e) {
-            Log.w(TAG, "Failed to initialize InputManager for key remapping: " + e.getMessage());
-            // InputManager injection may not be available - we'll fall back to broadcast intents
-            inputManager = null;
-            injectInputEventMethod = null;
+            // Service already disconnected
+            Log.w(TAG, "Failed to switch event profile: " + e.getMessage());
         }
     }
-    
+
     /**
-     * Attempts to inject a KeyEvent using InputManager (requires system privileges on most devices).
-     * Falls back to broadcast intents if injection is not available or fails.
-     * 
-     * @param keyCode The keycode to inject
-     * @param action KeyEvent.ACTION_DOWN or KeyEvent.ACTION_UP
-     * @return true if injection was attempted, false otherwise
+     * Re-reads PTT settings from SharedPreferences into the in-memory snapshot.
      */
-    private boolean injectKeyEvent(int keyCode, int action) {
-        // InputManager injection only available on API 23+ (Marshmallow)
-        // Note: Build.VERSION_CODES.M is not available in SDK 22, so we use numeric value
-        if (Build.VERSION.SDK_INT < 23) {
-            return false;
-        }
-        
-        if (inputManager == null || injectInputEventMethod == null) {
-            return false; // InputManager not initialized
-        }
-        
-        try {
-            long now = System.currentTimeMillis();
-            KeyEvent keyEvent = new KeyEvent(
-                now, // downTime
-                action == KeyEvent.ACTION_DOWN ? now : now + 100, // eventTime
-                action, // action
-                keyCode, // code
-                0, // repeat
-                0, // metaState
-                InputDevice.SOURCE_KEYBOARD, // deviceId
-                0, // scancode
-                KeyEvent.FLAG_FROM_SYSTEM, // flags
-                InputDevice.SOURCE_KEYBOARD // source
-            );
-            
-            // InputManager.INJECT_INPUT_EVENT_MODE_ASYNC = 0
-            // InputManager.INJECT_INPUT_EVENT_MODE_WAIT_FOR_RESULT = 1
-            int injectMode = 0; // ASYNC mode
-            
-            Boolean result = (Boolean) injectInputEventMethod.invoke(inputManager, keyEvent, injectMode);
-            
-            if (result != null && result) {
-                Log.d(TAG, "Successfully injected KeyEvent: keyCode=" + keyCode + ", action=" + action);
-                return true;
-            } else {
-                Log.w(TAG, "KeyEvent injection failed (may require system privileges)");
-                return false;
-            }
-        } catch (Exception e) {
-            Log.w(TAG, "Exception while injecting KeyEvent: " + e.getMessage());
-            return false;
+    private void reloadSettings() {
+        KeyActionTable keyActions = PttPreferences.getKeyActions(this);
+        int debounceMs = PttPreferences.getReleaseDebounceMs(this);
+        pressHandler.setKeyActions(keyActions);
+        inputDeviceKeys.reload();
+        pressHandler.setReleaseDebounceMs(debounceMs);
+        int coldStartHoldMs = PttPreferences.getColdStartHoldMs(this);
+        pressHandler.setColdStartHoldMs(coldStartHoldMs);
+        int maxPressMs = PttPreferences.getMaxPressMs(this);
+        pressHandler.setMaxPressMs(maxPressMs);
+        int doublePressWindowMs = PttPreferences.getDoublePressWindowMs(this);
+        int longPressMs = PttPreferences.getLongPressMs(this);
+        pressHandler.setDoublePressWindowMs(doublePressWindowMs);
+        pressHandler.setLongPressMs(longPressMs);
+        boolean targeted = PttPreferences.isTargetedBroadcast(this);
+        boolean acknowledged = PttPreferences.isBroadcastAck(this);
+        dispatcher.setDeliveryOptions(targeted, acknowledged);
+        boolean capture = PttPreferences.isKeyCapture(this);
+        if (capture != (keyCapture != null)) {
+            keyCapture = capture ? new KeyTraceRecorder(KEY_CAPTURE_CAPACITY) : null;
         }
+        boolean verbose = PttPreferences.isVerboseLog(this);
+        PttLog.setVerbose(verbose);
+        Log.d(TAG, "PTT settings snapshot updated: keys=" + keyActions
+                + ", deviceKeys=" + pressHandler.getDeviceKeys().size() + ", releaseDebounceMs=" + debounceMs
+                + ", coldStartHoldMs=" + coldStartHoldMs + ", maxPressMs=" + maxPressMs
+                + ", doublePressWindowMs=" + doublePressWindowMs + ", longPressMs=" + longPressMs
+                + ", targetedBroadcast=" + targeted + ", broadcastAck=" + acknowledged + ", verboseLog=" + verbose
+                + ", keyCapture=" + capture);
     }
-    
+
     @Override
     protected boolean onKeyEvent(KeyEvent event) {
+        keyEvents++;
         int keyCode = event.getKeyCode();
+        KeyTraceRecorder capture = keyCapture;
+        if (capture != null) {
+            capture.record(keyCode, event.getAction(), event.getRepeatCount(), event.getDeviceId(),
+                    event.getEventTime(), SystemClock.uptimeMillis());
+        }
+        KeyDiscovery discovery = keyDiscovery;
+        if (discovery != null) {
+            discovery.record(keyCode, event.getScanCode(), event.getDeviceId(), event.getAction(),
+                    event.getRepeatCount(), event.getEventTime(), SystemClock.uptimeMillis());
+        }
+        // Fast reject: most keys are unmapped; device overrides are only hashed when some exist
+        int keyAction = pressHandler.actionFor(event.getDeviceId(), keyCode);
+        if (keyAction == KeyActionTable.ACTION_NONE) {
+            return false;
+        }
+
         int action = event.getAction();
-        int pttKeyCode = PttPreferences.getPttKeyCode(this);
 
-        if (keyCode != pttKeyCode) {
+        if (keyAction != KeyActionTable.ACTION_PTT) {
+            // Side key: one action per press, autorepeat and release are only consumed
+            if (action == KeyEvent.ACTION_DOWN && event.getRepeatCount() == 0) {
+                dispatcher.keyAction(keyCode, keyAction, event.getEventTime());
+            }
+            if (action == KeyEvent.ACTION_DOWN || action == KeyEvent.ACTION_UP) {
+                keyEventsConsumed++;
+                return true;
+            }
             return false;
         }
 
+        // Record the press and return; launch and broadcast run on the dispatch thread
         if (action == KeyEvent.ACTION_DOWN) {
-            Log.d(TAG, "PTT button pressed (onKeyEvent - ACTION_DOWN), keyCode=" + keyCode);
-            MainActivity.isPTTButtonPressed = true;
-            launchHyTalkIfNeeded();
             if (event.getRepeatCount() == 0) {
-                sendPTTBroadcast(true);
+                // New generation before queueing; the DOWN carries it, and its launch is claimed for it
+                pressGeneration = MainActivity.PRESS_COORDINATOR.keyDown();
             }
+            dispatcher.pttDown(keyCode, event.getRepeatCount(), pressGeneration, event.getEventTime());
+            keyEventsConsumed++;
             return true;
         } else if (action == KeyEvent.ACTION_UP) {
-            Log.d(TAG, "PTT button released (onKeyEvent - ACTION_UP), keyCode=" + keyCode);
-            MainActivity.isPTTButtonPressed = false;
-            sendPTTBroadcast(false);
+            MainActivity.PRESS_COORDINATOR.keyUp(pressGeneration, event.getEventTime());
+            dispatcher.pttUp(keyCode, event.getEventTime());
+            keyEventsConsumed++;
             return true;
         }
 
@@ -186,86 +275,131 @@ public class PTTAccessibilityService extends AccessibilityService {
     }
     
     /**
-     * Launches HyTalk app directly or brings it to foreground if already running.
-     * This is called when PTT button is pressed to ensure HyTalk is active.
+     * Service counters, latency report and recent press trace:
+     * adb shell dumpsys activity service ru.chepil.hytalkptt/.PTTAccessibilityService
+     * With the argument "keytrace", the captured key events are saved for replay instead.
+     *
+     * Every counter is a primitive field read without locking; only the press trace and
+     * latency histograms are formatted on the dispatch thread.
      */
-    private void launchHyTalkIfNeeded() {
-        try {
-            Intent launchIntent = findHyTalkApp();
-            if (launchIntent != null) {
-                // Add flags to bring app to foreground or launch if not running
-                launchIntent.addFlags(Intent.FLAG_ACTIVITY_NEW_TASK);
-                launchIntent.addFlags(Intent.FLAG_ACTIVITY_CLEAR_TOP);
-                launchIntent.addFlags(Intent.FLAG_ACTIVITY_SINGLE_TOP);
-                launchIntent.addFlags(Intent.FLAG_ACTIVITY_REORDER_TO_FRONT);
-                
-                startActivity(launchIntent);
-                Log.d(TAG, "Launched/brought HyTalk to foreground");
-            } else {
-                Log.w(TAG, "HyTalk app not found - cannot launch");
-            }
-        } catch (Exception e) {
-            Log.e(TAG, "Error launching HyTalk", e);
+    @Override
+    protected void dump(FileDescriptor fd, PrintWriter pw, String[] args) {
+        if (args != null && args.length > 0 && "keytrace".equals(args[0])) {
+            saveKeyTrace(pw);
+            return;
+        }
+        pw.println("service: connected=" + connected + " connects=" + connects + " interrupts=" + interrupts
+                + " keyEvents=" + keyEvents + " keyEventsConsumed=" + keyEventsConsumed);
+        HyTalkResolver resolver = hyTalkResolver;
+        if (resolver != null) {
+            pw.println("resolver: hits=" + resolver.getHits() + " misses=" + resolver.getMisses()
+                    + " invalidations=" + resolver.getInvalidations());
         }
+        PttDispatcher current = dispatcher;
+        if (current == null) {
+            pw.println("PTT service not connected");
+            return;
+        }
+        pw.println("accessibility events: total=" + eventRate.total()
+                + " lastMinute=" + eventRate.perMinute());
+        current.dump(pw);
+        StringBuilder sb = new StringBuilder();
+        LaunchStartStats.appendReport(sb);
+        pw.print(sb);
     }
-    
+
     /**
-     * Finds the HyTalk app launch intent.
-     * @return Intent to launch HyTalk, or null if not found
+     * Writes the captured key events to the app's external files directory, where
+     * adb pull can fetch them, and prints the path.
      */
-    private Intent findHyTalkApp() {
-        PackageManager pm = getPackageManager();
-        
-        // First, try the known package names
-        for (String packageName : POSSIBLE_PACKAGE_NAMES) {
-            Intent launchIntent = pm.getLaunchIntentForPackage(packageName);
-            if (launchIntent != null) {
-                Log.d(TAG, "Found HyTalk app: " + packageName);
-                return launchIntent;
-            }
+    private void saveKeyTrace(PrintWriter pw) {
+        KeyTraceRecorder capture = keyCapture;
+        if (capture == null) {
+            pw.println("Key capture is off (key_capture setting)");
+            return;
         }
-        
-        // If not found, search through all installed packages
-        Intent mainIntent = new Intent(Intent.ACTION_MAIN, null);
-        mainIntent.addCategory(Intent.CATEGORY_LAUNCHER);
-        List<ResolveInfo> apps = pm.queryIntentActivities(mainIntent, 0);
-        
-        String selfPackage = getPackageName().toLowerCase();
-        for (ResolveInfo info : apps) {
-            String packageName = info.activityInfo.packageName.toLowerCase();
-            if (packageName.equals(selfPackage)) {
-                continue; // Exclude ourselves (ru.chepil.hytalkptt contains "hytalk")
-            }
-            if (packageName.contains("hytera") || packageName.contains("hytalk")) {
-                Log.d(TAG, "Found potential HyTalk app: " + packageName);
-                Intent launchIntent = pm.getLaunchIntentForPackage(info.activityInfo.packageName);
-                if (launchIntent != null) {
-                    Log.d(TAG, "Launching HyTalk with package: " + info.activityInfo.packageName);
-                    return launchIntent;
+        File dir = getExternalFilesDir(null);
+        if (dir == null) {
+            dir = getFilesDir();
+        }
+        File file = new File(dir, "keytrace-" + SystemClock.uptimeMillis() + ".bin");
+        OutputStream out = null;
+        try {
+            out = new FileOutputStream(file);
+            capture.snapshot().write(out);
+            pw.println("Saved " + Math.min(capture.written(), capture.capacity()) + " key events to "
+                    + file.getAbsolutePath());
+        } catch (IOException e) {
+            Log.e(TAG, "Error saving key trace", e);
+            pw.println("Failed to save key trace: " + e.getMessage());
+        } finally {
+            if (out != null) {
+                try {
+                    out.close();
+                } catch (IOException e) {
+                    Log.w(TAG, "Error closing key trace file", e);
                 }
             }
         }
-        
-        return null;
     }
-    
+
     /**
-     * Sends Broadcast Intent for HyTalk PTT button.
-     * Based on pttremap app logic: sends "android.intent.action.PTT_DOWN" or "PTT_UP"
+     * Starts recording every key the filter sees, including keys consumed before they
+     * reach a window. Replaces a discovery already running.
      */
-    private void sendPTTBroadcast(boolean isDown) {
-        try {
-            String action = isDown ? "android.intent.action.PTT_DOWN" : "android.intent.action.PTT_UP";
-            Intent intent = new Intent(action);
-            sendBroadcast(intent);
-            Log.d(TAG, "Sent PTT Broadcast Intent: " + action);
-        } catch (Exception e) {
-            Log.e(TAG, "Error sending PTT Broadcast Intent", e);
+    static KeyDiscovery startKeyDiscovery() {
+        KeyDiscovery discovery = new KeyDiscovery(KeyDiscovery.DEFAULT_CAPACITY);
+        keyDiscovery = discovery;
+        return discovery;
+    }
+
+    static void stopKeyDiscovery(KeyDiscovery discovery) {
+        if (keyDiscovery == discovery) {
+            keyDiscovery = null;
         }
     }
-    
+
+    /**
+     * True if the service is connected and has seen HyTalk's window since it started,
+     * i.e. HyTalk is running and a PTT_DOWN from the service will reach it.
+     */
+    static boolean isHyTalkSeen() {
+        PressHandler handler = connectedPressHandler;
+        return handler != null && handler.isTargetSeen();
+    }
+
+    /**
+     * Screen and keyguard state the connected service tracks from broadcasts, so reading
+     * it is a field read; null while the service is not connected.
+     */
+    static ScreenState getScreenState() {
+        return connectedScreenState;
+    }
+
+    /** True while the service is connected, i.e. key discovery receives keys. */
+    static boolean isConnected() {
+        return connected;
+    }
+
     @Override
     public void onDestroy() {
+        connected = false;
+        connectedPressHandler = null;
+        connectedScreenState = null;
+        PttPreferences.unregisterListener(this, pttPrefsListener);
+        serviceInfo = null;
+        if (inputDeviceKeys != null) {
+            inputDeviceKeys.stop();
+            inputDeviceKeys = null;
+        }
+        MainActivity.PRESS_COORDINATOR.keyUp(pressGeneration, SystemClock.uptimeMillis());
+        if (dispatcher != null) {
+            dispatcher.setPressListener(null);
+            dispatcher.logLatencyReport();
+            dispatcher.logTrace();
+            dispatcher.quit();
+            dispatcher = null;
+        }
         super.onDestroy();
         Log.d(TAG, "PTT Accessibility Service destroyed");
     }
@@ -0,0 +1,28 @@
+package ru.chepil.hytalkptt;
+
+/**
+ * One way of delivering the PTT signal to HyTalk.
+ * Implementations are called from the dispatch thread only.
+ */
+interface PttDelivery {
+
+    String ACTION_PTT_DOWN = "android.intent.action.PTT_DOWN";
+    String ACTION_PTT_UP = "android.intent.action.PTT_UP";
+
+    /** Short name for logs and reports. */
+    String getName();
+
+    /**
+     * Checks that this delivery works on the device without sending a PTT signal.
+     * Called once at service connect; its duration is used to rank deliveries.
+     *
+     * @return true if the delivery can be used
+     */
+    boolean probe();
+
+    /**
+     * @param down true for PTT_DOWN, false for PTT_UP
+     * @return true if the signal was handed to the system
+     */
+    boolean send(boolean down);
+}
@@ -0,0 +1,241 @@
+package ru.chepil.hytalkptt;
+
+import android.util.Log;
+
+import java.util.Arrays;
+
+import ru.chepil.hytalkptt.core.SignalSender;
+
+/**
+ * Picks how PTT reaches HyTalk. probe() runs every candidate PttDelivery at service
+ * connect and drops the ones that do not work on this device. The fallback (the implicit
+ * broadcast, the original behaviour) stays first; the other working deliveries follow it
+ * by median probe time, and one only takes the lead if its median is at least
+ * PROBE_MARGIN times faster, so a single noisy sample cannot reorder them. Signals go to
+ * the first working delivery; if it fails, the next one is tried and the failed one
+ * moves to the back of the list. A PTT_UP always goes through the delivery that sent
+ * the matching PTT_DOWN first.
+ *
+ * A delivery chosen in the settings (setPreferred, e.g. the targeted broadcast) is a
+ * candidate only while it is chosen, and then goes first regardless of its probe time.
+ * All methods run on the dispatch thread.
+ */
+final class PttDeliverySelector implements SignalSender {
+
+    private static final String TAG = "PttDeliverySelector";
+
+    // Timed probes per delivery, after one untimed call
+    static final int PROBE_ROUNDS = 5;
+    // A delivery replaces the fallback only if its median probe is this many times faster
+    static final int PROBE_MARGIN = 2;
+
+    private final PttDelivery[] deliveries;
+    private final PttDelivery fallback;
+
+    // Usable deliveries in order of use, plus room for the preferred one;
+    // only the first rankedCount entries are valid
+    private final PttDelivery[] ranked;
+    private int rankedCount;
+
+    // Delivery that sent the current PTT_DOWN
+    private PttDelivery downDelivery;
+
+    // Delivery selected in the settings, or null to rank by probe cost only
+    private PttDelivery preferred;
+
+    private volatile String activeName;
+    private volatile long fallbacks;
+    private volatile long failures;
+    private volatile long signalsSent;
+    private volatile long signalsFailed;
+
+    /**
+     * @param fallback    default delivery, used before probing and when nothing else works
+     * @param deliveries  candidates probed on every device, including fallback
+     */
+    PttDeliverySelector(PttDelivery fallback, PttDelivery... deliveries) {
+        this.fallback = fallback;
+        this.deliveries = deliveries;
+        ranked = new PttDelivery[deliveries.length + 1];
+        ranked[0] = fallback;
+        rankedCount = 1;
+        activeName = fallback.getName();
+    }
+
+    /**
+     * Probes the candidate deliveries and ranks the working ones: the fallback first
+     * unless another one is clearly faster, then by median probe time.
+     */
+    void probe() {
+        long[] medians = new long[deliveries.length];
+        long[] samples = new long[PROBE_ROUNDS];
+        int count = 0;
+        long fallbackMedian = -1;
+        StringBuilder sb = new StringBuilder("Delivery probe (median of ").append(PROBE_ROUNDS).append("):");
+        for (PttDelivery delivery : deliveries) {
+            // The first call pays for class loading and target resolution; it is not timed
+            boolean ok = delivery.probe();
+            for (int round = 0; ok && round < PROBE_ROUNDS; round++) {
+                long start = System.nanoTime();
+                ok = delivery.probe();
+                samples[round] = System.nanoTime() - start;
+            }
+            long median = 0;
+            if (ok) {
+                Arrays.sort(samples);
+                median = samples[PROBE_ROUNDS / 2];
+            }
+            sb.append(' ').append(delivery.getName()).append('=')
+                    .append(ok ? (median / 1000) + "us" : "unavailable");
+            if (!ok) {
+                continue;
+            }
+            if (delivery == fallback) {
+                fallbackMedian = median;
+            }
+            // Insertion sort by median; the list has three entries at most
+            int i = count++;
+            while (i > 0 && medians[i - 1] > median) {
+                medians[i] = medians[i - 1];
+                ranked[i] = ranked[i - 1];
+                i--;
+            }
+            medians[i] = median;
+            ranked[i] = delivery;
+        }
+        if (count == 0) {
+            ranked[0] = fallback;
+            count = 1;
+        }
+        rankedCount = count;
+        // The fastest delivery leads only with a clear margin over the fallback
+        if (fallbackMedian >= 0 && ranked[0] != fallback && medians[0] * PROBE_MARGIN > fallbackMedian) {
+            moveToFront(fallback);
+        }
+        if (preferred != null) {
+            moveToFront(preferred);
+        }
+        activeName = ranked[0].getName();
+        Log.i(TAG, sb.append(" -> using ").append(activeName).toString());
+    }
+
+    /**
+     * Adds delivery as a candidate and puts it first, without probing it. If it then
+     * fails, the usual fallback demotes it. null drops the previous preferred delivery
+     * and goes back to the probe ranking.
+     */
+    void setPreferred(PttDelivery delivery) {
+        if (delivery == preferred) {
+            return;
+        }
+        PttDelivery previous = preferred;
+        preferred = delivery;
+        if (previous != null) {
+            remove(previous);
+        }
+        if (delivery != null) {
+            moveToFront(delivery);
+        } else if (previous != null) {
+            probe();
+        }
+        activeName = ranked[0].getName();
+    }
+
+    @Override
+    public boolean sendPtt(boolean down) {
+        if (!down && downDelivery != null) {
+            PttDelivery paired = downDelivery;
+            downDelivery = null;
+            if (paired.send(false)) {
+                signalsSent++;
+                return true;
+            }
+            failures++;
+        }
+        for (int i = 0; i < rankedCount; i++) {
+            PttDelivery delivery = ranked[i];
+            if (delivery.send(down)) {
+                if (down) {
+                    downDelivery = delivery;
+                }
+                if (i > 0) {
+                    demote(i);
+                }
+                signalsSent++;
+                return true;
+            }
+            failures++;
+        }
+        signalsFailed++;
+        return false;
+    }
+
+    String getActiveName() {
+        return activeName;
+    }
+
+    /** Times a delivery failed and the next one was used instead. */
+    long getFallbacks() {
+        return fallbacks;
+    }
+
+    /** Failed send attempts across all deliveries. */
+    long getFailures() {
+        return failures;
+    }
+
+    /** PTT signals that went out through some delivery. */
+    long getSignalsSent() {
+        return signalsSent;
+    }
+
+    /** PTT signals no delivery could send. */
+    long getSignalsFailed() {
+        return signalsFailed;
+    }
+
+    private void moveToFront(PttDelivery delivery) {
+        int i = 0;
+        while (i < rankedCount && ranked[i] != delivery) {
+            i++;
+        }
+        if (i == rankedCount) {
+            if (rankedCount == ranked.length) {
+                return; // Not one of ours
+            }
+            rankedCount++;
+        }
+        System.arraycopy(ranked, 0, ranked, 1, i);
+        ranked[0] = delivery;
+    }
+
+    /**
+     * Drops delivery from the ranking. A PTT_UP still pairs with it if it sent the PTT_DOWN.
+     */
+    private void remove(PttDelivery delivery) {
+        for (int i = 0; i < rankedCount; i++) {
+            if (ranked[i] == delivery) {
+                System.arraycopy(ranked, i + 1, ranked, i, rankedCount - i - 1);
+                ranked[--rankedCount] = null;
+                break;
+            }
+        }
+        if (rankedCount == 0) {
+            ranked[0] = fallback;
+            rankedCount = 1;
+        }
+    }
+
+    /**
+     * Moves the deliveries that failed before index working to the back.
+     */
+    private void demote(int working) {
+        PttDelivery[] failed = new PttDelivery[working];
+        System.arraycopy(ranked, 0, failed, 0, working);
+        System.arraycopy(ranked, working, ranked, 0, rankedCount - working);
+        System.arraycopy(failed, 0, ranked, rankedCount - working, working);
+        fallbacks++;
+        activeName = ranked[0].getName();
+        Log.w(TAG, "Delivery " + failed[0].getName() + " failed, falling back to " + activeName);
+    }
+}
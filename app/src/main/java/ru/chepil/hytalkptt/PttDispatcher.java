@@ -0,0 +1,478 @@
+package ru.chepil.hytalkptt;
+
+import android.content.Context;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Message;
+import android.os.Process;
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.io.PrintWriter;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import ru.chepil.hytalkptt.core.Clock;
+import ru.chepil.hytalkptt.core.KeyActionTable;
+import ru.chepil.hytalkptt.core.PressHandler;
+import ru.chepil.hytalkptt.core.TraceBuffer;
+
+/**
+ * Runs PTT launch and broadcast work on a dedicated high-priority thread, so
+ * PTTAccessibilityService.onKeyEvent only records the press and returns.
+ *
+ * All work goes through one Handler queue, which keeps DOWN/UP strictly in order.
+ * A DOWN that is already superseded when it runs (an UP is queued behind it) skips
+ * the HyTalk launch, but its PTT_DOWN broadcast is still sent so HyTalk always sees
+ * matching DOWN/UP pairs. The decisions themselves live in PressHandler (ptt-core);
+ * this class owns the thread and the single timer message behind
+ * PressHandler.nextDeadline().
+ *
+ * Press history lives in PressHandler's TraceBuffer, which is only touched on the
+ * dispatch thread; dumps are formatted there too.
+ *
+ * A new press takes PttWakeLock as the first step of its DOWN on the dispatch thread;
+ * it is released once the press's PTT_DOWN has gone out, so a screen-off press is not
+ * slowed by CPU suspend.
+ *
+ * Event times travel through Message.arg2 as truncated uptime millis and are
+ * widened again on the dispatch thread; differences between truncated values stay
+ * correct across int wrap-around. A DOWN's press generation travels the same way,
+ * as its low 16 bits in arg1.
+ */
+final class PttDispatcher implements Handler.Callback {
+
+    /**
+     * Told on the dispatch thread when a press starts (leaves IDLE) and when it is over,
+     * after the press's signals have been sent.
+     */
+    interface PressListener {
+        void onPressActiveChanged(boolean active);
+    }
+
+    private static final String TAG = "PttDispatcher";
+
+    private static final int MSG_DOWN = 1;
+    private static final int MSG_UP = 2;
+    private static final int MSG_FOREGROUND = 3;
+    private static final int MSG_REPORT = 4;
+    private static final int MSG_TIMER = 5;
+    private static final int MSG_FLUSH = 6;
+    private static final int MSG_PROBE = 7;
+    private static final int MSG_DELIVERY_OPTIONS = 8;
+    private static final int MSG_LOG_TRACE = 9;
+    private static final int MSG_KEY_ACTION = 10;
+    private static final int MSG_RECOVER = 11;
+    private static final int MSG_TARGET_CHANGED = 12;
+
+    // MSG_DOWN arg1 below the generation bits: repeat count above a keycode below MAX_KEYCODE (1 << 10)
+    private static final int DOWN_KEYCODE_MASK = KeyActionTable.MAX_KEYCODE - 1;
+    private static final int DOWN_REPEAT_MASK = 0x3F;
+
+    // Log a latency report every this many presses
+    private static final int REPORT_INTERVAL = 50;
+    // How long dump() waits for the dispatch thread
+    private static final long DUMP_TIMEOUT_MS = 1000;
+
+    static final Clock UPTIME_CLOCK = new Clock() {
+        @Override
+        public long uptimeMillis() {
+            return SystemClock.uptimeMillis();
+        }
+    };
+
+    private final PressHandler pressHandler;
+    private final PttDeliverySelector deliverySelector;
+    private final TargetedBroadcastDelivery targetedBroadcast;
+    private final SideKeyActions sideKeyActions;
+    private final ScreenState screenState;
+    private final PttWakeLock wakeLock;
+    private final HyTalkResolver hyTalkResolver;
+    private final Runnable targetChanged = new Runnable() {
+        @Override
+        public void run() {
+            handler.sendEmptyMessage(MSG_TARGET_CHANGED);
+        }
+    };
+    private final HandlerThread thread;
+    private final Handler handler;
+
+    private long reportedPresses;
+
+    private volatile PressListener pressListener;
+    private boolean pressActive;
+
+    PttDispatcher(Context context, HyTalkResolver hyTalkResolver, int pttKeyCode) {
+        thread = new HandlerThread("PttDispatch", Process.THREAD_PRIORITY_URGENT_AUDIO);
+        thread.start();
+        handler = new Handler(thread.getLooper(), this);
+        this.hyTalkResolver = hyTalkResolver;
+        // Broadcast results land on the dispatch thread
+        targetedBroadcast = new TargetedBroadcastDelivery(context, hyTalkResolver, handler);
+        PttDelivery implicitBroadcast = new ImplicitBroadcastDelivery(context);
+        // The targeted broadcast is only a candidate once chosen in the settings (setPreferred)
+        deliverySelector = new PttDeliverySelector(implicitBroadcast,
+                implicitBroadcast,
+                new KeyInjectionDelivery(context));
+        pressHandler = new PressHandler(
+                new HyTalkLaunchTarget(context, hyTalkResolver),
+                deliverySelector,
+                UPTIME_CLOCK,
+                pttKeyCode);
+        sideKeyActions = new SideKeyActions(context);
+        pressHandler.setGestureListener(sideKeyActions);
+        pressHandler.setPressCoordinator(MainActivity.PRESS_COORDINATOR);
+        screenState = new ScreenState(context);
+        screenState.startTracking();
+        pressHandler.setDeviceState(screenState);
+        wakeLock = new PttWakeLock(context, screenState);
+        // Broadcast results arrive outside handleMessage
+        targetedBroadcast.setSettledListener(new Runnable() {
+            @Override
+            public void run() {
+                releaseWakeLockIfDone(SystemClock.uptimeMillis());
+            }
+        });
+        // A reinstalled or removed HyTalk is not running, whatever was seen before
+        hyTalkResolver.setInvalidationListener(targetChanged);
+    }
+
+    PressHandler getPressHandler() {
+        return pressHandler;
+    }
+
+    /** Screen and keyguard state, tracked from broadcasts until quit(). */
+    ScreenState getScreenState() {
+        return screenState;
+    }
+
+    void setPressListener(PressListener listener) {
+        pressListener = listener;
+    }
+
+    /**
+     * Probes PTT deliveries on the dispatch thread. Another delivery replaces the
+     * implicit broadcast only if it is clearly faster.
+     */
+    void probeDeliveries() {
+        handler.sendEmptyMessage(MSG_PROBE);
+    }
+
+    /**
+     * Applies the broadcast settings on the dispatch thread.
+     *
+     * @param targeted     send PTT only to the HyTalk package instead of an implicit broadcast
+     * @param acknowledged with targeted, send ordered broadcasts and measure their delivery latency
+     */
+    void setDeliveryOptions(boolean targeted, boolean acknowledged) {
+        handler.obtainMessage(MSG_DELIVERY_OPTIONS, targeted ? 1 : 0, acknowledged ? 1 : 0).sendToTarget();
+    }
+
+    /**
+     * Queues a PTT ACTION_DOWN. Safe to call from the input callback: Message objects
+     * come from the framework pool, nothing else is allocated.
+     *
+     * @param generation PressCoordinator generation keyDown() returned for this press
+     */
+    void pttDown(int keyCode, int repeatCount, long generation, long eventTime) {
+        // Message.when is the enqueue time, i.e. when onKeyEvent saw the key
+        handler.obtainMessage(MSG_DOWN, packDown(generation, repeatCount, keyCode), (int) eventTime)
+                .sendToTarget();
+    }
+
+    /**
+     * Queues a PTT ACTION_UP.
+     */
+    void pttUp(int keyCode, long eventTime) {
+        handler.obtainMessage(MSG_UP, keyCode, (int) eventTime).sendToTarget();
+    }
+
+    /**
+     * Queues a side-key action (emergency, channel up/down) for a key press.
+     */
+    void keyAction(int keyCode, int action, long eventTime) {
+        handler.obtainMessage(MSG_KEY_ACTION, pack(action, keyCode), (int) eventTime).sendToTarget();
+    }
+
+    /**
+     * Reports a foreground window-state change (uptime millis of the accessibility event).
+     *
+     * @param hyTalkOnTop true if the new foreground window belongs to HyTalk
+     */
+    void foregroundChanged(boolean hyTalkOnTop, long eventTime) {
+        handler.obtainMessage(MSG_FOREGROUND, hyTalkOnTop ? 1 : 0, (int) eventTime).sendToTarget();
+    }
+
+    /**
+     * Logs per-stage latency percentiles from the dispatch thread.
+     */
+    void logLatencyReport() {
+        handler.sendEmptyMessage(MSG_REPORT);
+    }
+
+    /**
+     * Writes the press trace to logcat from the dispatch thread.
+     */
+    void logTrace() {
+        handler.sendEmptyMessage(MSG_LOG_TRACE);
+    }
+
+    /**
+     * Writes the latency report and the press trace to pw. Called from a binder
+     * thread (dumpsys); formatting runs on the dispatch thread, which owns the data.
+     */
+    void dump(PrintWriter pw) {
+        final StringBuilder sb = new StringBuilder();
+        final CountDownLatch done = new CountDownLatch(1);
+        boolean posted = handler.post(new Runnable() {
+            @Override
+            public void run() {
+                appendReport(sb);
+                sb.append('\n');
+                pressHandler.getTrace().appendTo(sb);
+                done.countDown();
+            }
+        });
+        try {
+            if (!posted || !done.await(DUMP_TIMEOUT_MS, TimeUnit.MILLISECONDS)) {
+                pw.println("PTT dispatch thread not responding");
+                return;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return;
+        }
+        pw.print(sb);
+    }
+
+    /**
+     * Ends a press in progress on the dispatch thread (the service was interrupted and
+     * may not see its ACTION_UP): a pending release or the watchdog PTT_UP is sent now.
+     */
+    void releaseNow() {
+        handler.sendEmptyMessage(MSG_FLUSH);
+    }
+
+    /**
+     * Queues a PTT_UP for a previous process that may have died mid-press.
+     * Call after probeDeliveries() so it goes out on the selected delivery.
+     */
+    void sendRecoveryUp() {
+        handler.sendEmptyMessage(MSG_RECOVER);
+    }
+
+    /**
+     * Stops the dispatch thread after already queued work has been delivered,
+     * so a pending PTT_UP is not lost. A release still inside its debounce window
+     * is sent right away, since quitSafely() drops the delayed timer message,
+     * and a press still in progress gets its PTT_UP from the watchdog.
+     */
+    void quit() {
+        hyTalkResolver.removeInvalidationListener(targetChanged);
+        handler.sendEmptyMessage(MSG_FLUSH);
+        handler.post(new Runnable() {
+            @Override
+            public void run() {
+                wakeLock.release();
+                screenState.stopTracking();
+            }
+        });
+        thread.quitSafely();
+    }
+
+    @Override
+    public boolean handleMessage(Message msg) {
+        long now = SystemClock.uptimeMillis();
+        switch (msg.what) {
+            case MSG_DOWN:
+                int repeatCount = (msg.arg1 >>> 10) & DOWN_REPEAT_MASK;
+                if (repeatCount == 0) {
+                    // Before any launch or broadcast work; the input callback stays binder-free
+                    wakeLock.acquire(Math.max(pressHandler.getColdStartHoldMs(),
+                            pressHandler.getDoublePressWindowMs()));
+                }
+                // Released before we got here - launching now would be stale
+                boolean superseded = handler.hasMessages(MSG_UP);
+                long generation = widenGeneration(msg.arg1 >>> 16, MainActivity.PRESS_COORDINATOR.generation());
+                pressHandler.onDown(msg.arg1 & DOWN_KEYCODE_MASK, repeatCount, generation, widen(msg.arg2, now),
+                        msg.getWhen(), superseded);
+                break;
+            case MSG_UP:
+                pressHandler.onUp(msg.arg1, widen(msg.arg2, now));
+                break;
+            case MSG_KEY_ACTION:
+                boolean sent = sideKeyActions.send(msg.arg1 >>> 16, msg.arg1 & 0xFFFF);
+                pressHandler.getTrace().record(TraceBuffer.EVENT_ACTION, msg.arg1 & 0xFFFF, widen(msg.arg2, now), now,
+                        sent ? TraceBuffer.OUTCOME_OK : TraceBuffer.OUTCOME_FAILED);
+                return true;
+            case MSG_TIMER:
+                pressHandler.onTimer(now);
+                break;
+            case MSG_FLUSH:
+                pressHandler.flush();
+                break;
+            case MSG_RECOVER:
+                pressHandler.sendRecoveryUp();
+                break;
+            case MSG_FOREGROUND:
+                pressHandler.onForegroundChanged(msg.arg1 != 0, widen(msg.arg2, now));
+                break;
+            case MSG_TARGET_CHANGED:
+                pressHandler.onTargetChanged();
+                return true;
+            case MSG_REPORT:
+                reportLatency();
+                return true;
+            case MSG_LOG_TRACE:
+                logTrace(pressHandler.getTrace());
+                return true;
+            case MSG_PROBE:
+                deliverySelector.probe();
+                return true;
+            case MSG_DELIVERY_OPTIONS:
+                targetedBroadcast.setAcknowledged(msg.arg2 != 0);
+                deliverySelector.setPreferred(msg.arg1 != 0 ? targetedBroadcast : null);
+                return true;
+            default:
+                return false;
+        }
+        scheduleTimer();
+        releaseWakeLockIfDone(now);
+        notifyPressActive();
+
+        long presses = pressHandler.getPresses();
+        if (presses != reportedPresses && presses % REPORT_INTERVAL == 0) {
+            reportedPresses = presses;
+            reportLatency();
+        }
+        return true;
+    }
+
+    /**
+     * Re-arms the single timer message for the press handler's next deadline.
+     */
+    private void scheduleTimer() {
+        handler.removeMessages(MSG_TIMER);
+        long deadline = pressHandler.nextDeadline();
+        if (deadline != PressHandler.NO_DEADLINE) {
+            handler.sendEmptyMessageAtTime(MSG_TIMER, deadline);
+        }
+    }
+
+    private void releaseWakeLockIfDone(long now) {
+        wakeLock.onDispatched(pressHandler.getDownSignals(), pressHandler.getPressEventTime(),
+                pressHandler.isDownHeld() || targetedBroadcast.isDownInFlight(), now);
+    }
+
+    private void notifyPressActive() {
+        boolean active = pressHandler.getState() != PressHandler.STATE_IDLE;
+        if (active == pressActive) {
+            return;
+        }
+        pressActive = active;
+        PressListener listener = pressListener;
+        if (listener != null) {
+            listener.onPressActiveChanged(active);
+        }
+    }
+
+    private void reportLatency() {
+        StringBuilder sb = new StringBuilder();
+        appendReport(sb);
+        Log.i(TAG, sb.toString());
+    }
+
+    private void appendReport(StringBuilder sb) {
+        sb.append("PTT latency since key event:\n");
+        pressHandler.getLatencyStats().appendReport(sb);
+        sb.append("presses=").append(pressHandler.getPresses())
+                .append(" repeatsSuppressed=").append(pressHandler.getSuppressedRepeats())
+                .append(" debouncedReleases=").append(pressHandler.getDebouncedReleases())
+                .append("\nlaunches=").append(pressHandler.getLaunches())
+                .append(" launchFailures=").append(pressHandler.getLaunchFailures())
+                .append(" targetResets=").append(pressHandler.getTargetResets())
+                .append(" launchesSkippedSuperseded=").append(pressHandler.getSupersededLaunches())
+                .append(" launchesSkippedForeground=").append(pressHandler.getForegroundSkippedLaunches())
+                .append(" launchesClaimedElsewhere=").append(pressHandler.getLaunchesClaimedElsewhere())
+                .append(" launchesSkippedPolicy=").append(pressHandler.getPolicySkippedLaunches())
+                .append(" duplicateLaunchesAvoided=").append(MainActivity.PRESS_COORDINATOR.getDuplicateLaunches())
+                .append(" staleTransitions=").append(MainActivity.PRESS_COORDINATOR.getStaleTransitions())
+                .append("\nsignalsSent=").append(deliverySelector.getSignalsSent())
+                .append(" signalsFailed=").append(deliverySelector.getSignalsFailed())
+                .append(" delivery=").append(deliverySelector.getActiveName())
+                .append(" deliveryFallbacks=").append(deliverySelector.getFallbacks())
+                .append(" deliveryFailures=").append(deliverySelector.getFailures())
+                .append(" sideKeyActions=").append(sideKeyActions.getSent())
+                .append(" sideKeyFailures=").append(sideKeyActions.getFailed());
+        if (pressHandler.getColdStartHolds() > 0) {
+            sb.append("\ncold start hold: ");
+            pressHandler.getColdStartWait().appendSummary(sb);
+            sb.append(" holds=").append(pressHandler.getColdStartHolds())
+                    .append(" sentOnWindow=").append(pressHandler.getColdStartWindowFlushes())
+                    .append(" sentOnDeadline=").append(pressHandler.getColdStartDeadlineFlushes())
+                    .append(" dropped=").append(pressHandler.getColdStartDrops());
+        }
+        sb.append("\nwatchdog: maxPressMs=").append(pressHandler.getMaxPressMs())
+                .append(" timeouts=").append(pressHandler.getWatchdogTimeouts())
+                .append(" lifecycleReleases=").append(pressHandler.getWatchdogLifecycleReleases())
+                .append(" recoveryUps=").append(pressHandler.getRecoveryUps());
+        if (pressHandler.getDoublePresses() + pressHandler.getLongPresses() + pressHandler.getReKeys() > 0) {
+            sb.append("\ngestures: doublePresses=").append(pressHandler.getDoublePresses())
+                    .append(" longPresses=").append(pressHandler.getLongPresses())
+                    .append(" reKeys=").append(pressHandler.getReKeys());
+        }
+        sb.append("\ndispatch policy, key to PTT_DOWN:\n");
+        pressHandler.getDispatchPolicy().appendReport(sb);
+        wakeLock.appendReport(sb);
+        if (targetedBroadcast.getResults() + targetedBroadcast.getSlowResults() > 0) {
+            sb.append("\nbroadcast delivery: ");
+            targetedBroadcast.getResultLatency().appendSummary(sb);
+            sb.append(" results=").append(targetedBroadcast.getResults())
+                    .append(" slow=").append(targetedBroadcast.getSlowResults());
+        }
+    }
+
+    /**
+     * Logs the trace one record per line; a single logcat entry is capped at ~4 KB.
+     */
+    private static void logTrace(TraceBuffer trace) {
+        StringBuilder sb = new StringBuilder();
+        trace.appendTo(sb);
+        int start = 0;
+        for (int end = sb.indexOf("\n"); end >= 0; end = sb.indexOf("\n", start)) {
+            Log.i(TAG, sb.substring(start, end));
+            start = end + 1;
+        }
+    }
+
+    /**
+     * Packs a small value and a keycode (below KeyActionTable.MAX_KEYCODE) into one Message arg.
+     */
+    private static int pack(int high, int keyCode) {
+        return (high << 16) | (keyCode & 0xFFFF);
+    }
+
+    /**
+     * Packs a DOWN into one Message arg: the low 16 bits of the press generation, the repeat
+     * count (saturating at DOWN_REPEAT_MASK) and the keycode (below KeyActionTable.MAX_KEYCODE).
+     */
+    private static int packDown(long generation, int repeatCount, int keyCode) {
+        return ((int) generation << 16) | (Math.min(repeatCount, DOWN_REPEAT_MASK) << 10)
+                | (keyCode & DOWN_KEYCODE_MASK);
+    }
+
+    /**
+     * Restores a press generation from its low 16 bits. Generations only grow, and the
+     * one a queued DOWN carries is far fewer than 65536 presses behind the current one.
+     */
+    private static long widenGeneration(int truncated, long current) {
+        return current - ((current - truncated) & 0xFFFF);
+    }
+
+    /**
+     * Restores a full uptime value from its low 32 bits, assuming it lies in the past.
+     */
+    private static long widen(int truncated, long now) {
+        return now - ((int) now - truncated);
+    }
+}
@@ -1,17 +1,48 @@
 package ru.chepil.hytalkptt;
 
 import android.os.Bundle;
+import android.os.Handler;
 import android.util.Log;
 import android.view.KeyEvent;
 import android.view.View;
+import android.view.InputDevice;
 import android.widget.Button;
+import android.widget.CheckBox;
+import android.widget.EditText;
 import android.widget.TextView;
 import android.widget.Toast;
 import android.support.v7.app.AppCompatActivity;
 
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Map;
+
+import ru.chepil.hytalkptt.core.KeyActionTable;
+import ru.chepil.hytalkptt.core.KeyDiscovery;
+
 /**
- * Activity for detecting and displaying the PTT hardware key code.
- * Stores keyCode on ACTION_DOWN; "Save settings" saves it to app sandbox.
+ * Activity for detecting and displaying hardware key codes.
+ * Stores keyCode on ACTION_DOWN; the action buttons assign it to PTT, emergency or
+ * channel up/down (Clear removes it), and "Save settings" saves the mapping to app sandbox.
+ * Pressing a key and saving without assigning anything keeps the original behaviour
+ * (that key becomes the only PTT key) as long as no mapping has been saved; once one
+ * has, a key only changes it through the action buttons. With "This device only" checked,
+ * the assignment applies only to the input device the key came from (e.g. a remote
+ * speaker mic); there Clear makes that device pass the key through even if it is mapped
+ * for all devices.
+ *
+ * While the screen is open, PTTAccessibilityService also records every key it sees
+ * (key discovery), so keys consumed before they reach this window can be found too.
+ * The discovered keys are shown with scancode, repeat rate, hold time and delivery
+ * delay, and saved to key-discovery.txt with the settings. Tapping the list takes the
+ * most recently pressed one as the key to assign; nothing is taken without the tap.
+ *
+ * The options below the key buttons (debounce, cold-start hold, watchdog, gestures,
+ * delivery, capture and logging) are saved with the same button; the
+ * running service picks them up through its preference listener. Keys typed into a
+ * number field are not taken as the key to assign.
  */
 public class PttKeySetupActivity extends AppCompatActivity {
 
@@ -21,6 +52,50 @@ public class PttKeySetupActivity extends AppCompatActivity {
     /** Last keyCode from ACTION_DOWN (repeatCount == 0). -1 if none yet. */
     private int lastKeyCode = -1;
 
+    private TextView tvKeyMapping;
+    /** Mapping being edited; starts from the saved one. */
+    private KeyActionTable keyActions;
+    /** True once an action button was used. */
+    private boolean mappingEdited;
+
+    private CheckBox cbThisDeviceOnly;
+    /** Per-device mappings being edited, by InputDevice descriptor. */
+    private Map<String, KeyActionTable> deviceKeyActions;
+    /** Descriptor and name of the device that sent lastKeyCode; null if unknown. */
+    private String lastDeviceDescriptor;
+    private String lastDeviceName;
+
+    // Discovered keys are redrawn at most this often, not per key event
+    private static final long DISCOVERY_REFRESH_MS = 250;
+    private static final String DISCOVERY_FILE = "key-discovery.txt";
+
+    private final Handler uiHandler = new Handler();
+    private TextView tvDiscoveredKeys;
+    private KeyDiscovery keyDiscovery;
+    private long shownDiscoveryVersion = -1;
+    /** Reused for tvKeyCode: the last DOWN, followed by its UP. */
+    private final StringBuilder keyText = new StringBuilder();
+    /** Reused for tvDiscoveredKeys; separate, so an UP never appends to the discovery list. */
+    private final StringBuilder discoveryText = new StringBuilder();
+
+    private EditText etReleaseDebounceMs;
+    private EditText etColdStartHoldMs;
+    private EditText etMaxPressMs;
+    private EditText etDoublePressWindowMs;
+    private EditText etLongPressMs;
+    private CheckBox cbTargetedBroadcast;
+    private CheckBox cbBroadcastAck;
+    private CheckBox cbKeyCapture;
+    private CheckBox cbVerboseLog;
+
+    private final Runnable discoveryRefresh = new Runnable() {
+        @Override
+        public void run() {
+            showDiscoveredKeys();
+            uiHandler.postDelayed(this, DISCOVERY_REFRESH_MS);
+        }
+    };
+
     @Override
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
@@ -33,29 +108,336 @@ public class PttKeySetupActivity extends AppCompatActivity {
             tvKeyCode.requestFocus();
         }
 
+        keyActions = PttPreferences.getKeyActions(this);
+        deviceKeyActions = PttPreferences.getDeviceKeyActions(this);
+        cbThisDeviceOnly = (CheckBox) findViewById(R.id.cb_this_device_only);
+        tvKeyMapping = (TextView) findViewById(R.id.tv_key_mapping);
+        tvDiscoveredKeys = (TextView) findViewById(R.id.tv_discovered_keys);
+        if (tvDiscoveredKeys != null) {
+            tvDiscoveredKeys.setOnClickListener(new View.OnClickListener() {
+                @Override
+                public void onClick(View v) {
+                    adoptDiscoveredKey();
+                }
+            });
+        }
+        showMapping();
+        showOptions();
+
+        setupAssignButton(R.id.btn_assign_ptt, KeyActionTable.ACTION_PTT);
+        setupAssignButton(R.id.btn_assign_emergency, KeyActionTable.ACTION_EMERGENCY);
+        setupAssignButton(R.id.btn_assign_channel_up, KeyActionTable.ACTION_CHANNEL_UP);
+        setupAssignButton(R.id.btn_assign_channel_down, KeyActionTable.ACTION_CHANNEL_DOWN);
+        setupAssignButton(R.id.btn_clear_key, KeyActionTable.ACTION_NONE);
+
         Button btnSave = (Button) findViewById(R.id.btn_save_settings);
         if (btnSave != null) {
             btnSave.setOnClickListener(new View.OnClickListener() {
                 @Override
                 public void onClick(View v) {
-                    if (lastKeyCode >= 0) {
+                    // Everything is checked before anything is written
+                    if (mappingEdited && keyActions.firstKeyFor(KeyActionTable.ACTION_PTT) < 0) {
+                        Toast.makeText(PttKeySetupActivity.this, "Assign a PTT key first", Toast.LENGTH_SHORT).show();
+                        return;
+                    }
+                    boolean singleKey = !mappingEdited && lastKeyCode >= 0
+                            && !PttPreferences.hasKeyActions(PttKeySetupActivity.this);
+                    if (!mappingEdited && !singleKey && !saveOptions(false)) {
+                        // Replacing a saved mapping with one key takes an explicit assignment
+                        Toast.makeText(PttKeySetupActivity.this,
+                                lastKeyCode >= 0 ? "Tap PTT to assign the key" : "Press PTT button first",
+                                Toast.LENGTH_SHORT).show();
+                        return;
+                    }
+                    if (mappingEdited) {
+                        PttPreferences.setKeyActions(PttKeySetupActivity.this, keyActions);
+                        PttPreferences.setDeviceKeyActions(PttKeySetupActivity.this, deviceKeyActions);
+                    } else if (singleKey) {
                         PttPreferences.setPttKeyCode(PttKeySetupActivity.this, lastKeyCode);
-                        Toast.makeText(PttKeySetupActivity.this, "Saved", Toast.LENGTH_SHORT).show();
-                        finish();
-                    } else {
-                        Toast.makeText(PttKeySetupActivity.this, "Press PTT button first", Toast.LENGTH_SHORT).show();
                     }
+                    saveOptions(true);
+                    saveDiscoveredKeys();
+                    Toast.makeText(PttKeySetupActivity.this, "Saved", Toast.LENGTH_SHORT).show();
+                    finish();
                 }
             });
         }
     }
 
+    /**
+     * Wires an action button: assigns the last pressed key to action.
+     */
+    private void setupAssignButton(int id, final int action) {
+        Button button = (Button) findViewById(id);
+        if (button == null) {
+            return;
+        }
+        button.setOnClickListener(new View.OnClickListener() {
+            @Override
+            public void onClick(View v) {
+                if (lastKeyCode < 0) {
+                    Toast.makeText(PttKeySetupActivity.this, "Press a key first", Toast.LENGTH_SHORT).show();
+                    return;
+                }
+                if (lastKeyCode >= KeyActionTable.MAX_KEYCODE) {
+                    Toast.makeText(PttKeySetupActivity.this, "Keycode " + lastKeyCode + " is not supported",
+                            Toast.LENGTH_SHORT).show();
+                    return;
+                }
+                if (cbThisDeviceOnly != null && cbThisDeviceOnly.isChecked()) {
+                    if (lastDeviceDescriptor == null) {
+                        Toast.makeText(PttKeySetupActivity.this, "Unknown input device", Toast.LENGTH_SHORT).show();
+                        return;
+                    }
+                    KeyActionTable table = deviceKeyActions.get(lastDeviceDescriptor);
+                    if (table == null) {
+                        table = KeyActionTable.EMPTY;
+                    }
+                    // Clear stores an explicit "none", so the key is not taken from the global mapping
+                    deviceKeyActions.put(lastDeviceDescriptor, table.withOverride(lastKeyCode, action));
+                } else {
+                    keyActions = keyActions.with(lastKeyCode, action);
+                }
+                mappingEdited = true;
+                showMapping();
+                if (tvKeyCode != null) {
+                    tvKeyCode.requestFocus();
+                }
+            }
+        });
+    }
+
+    private void showMapping() {
+        if (tvKeyMapping != null) {
+            String text = keyActions.encode();
+            StringBuilder sb = new StringBuilder(text.isEmpty() ? "No keys assigned" : "Keys: " + text.replace(",", "  "));
+            int devices = 0;
+            for (KeyActionTable table : deviceKeyActions.values()) {
+                if (table.nextMappedKey(0) >= 0) {
+                    devices++;
+                }
+            }
+            if (devices > 0) {
+                sb.append("\nDevice-specific keys on ").append(devices).append(" device(s)");
+                KeyActionTable current = lastDeviceDescriptor != null ? deviceKeyActions.get(lastDeviceDescriptor) : null;
+                if (current != null && current.nextMappedKey(0) >= 0) {
+                    sb.append("\n").append(lastDeviceName).append(": ").append(current.encode().replace(",", "  "));
+                }
+            }
+            tvKeyMapping.setText(sb);
+        }
+    }
+
+    private void showOptions() {
+        etReleaseDebounceMs = setupNumberField(R.id.et_release_debounce_ms,
+                PttPreferences.getReleaseDebounceMs(this));
+        etColdStartHoldMs = setupNumberField(R.id.et_cold_start_hold_ms,
+                PttPreferences.getColdStartHoldMs(this));
+        etMaxPressMs = setupNumberField(R.id.et_max_press_ms,
+                PttPreferences.getMaxPressMs(this));
+        etDoublePressWindowMs = setupNumberField(R.id.et_double_press_window_ms,
+                PttPreferences.getDoublePressWindowMs(this));
+        etLongPressMs = setupNumberField(R.id.et_long_press_ms,
+                PttPreferences.getLongPressMs(this));
+        cbTargetedBroadcast = setupCheckBox(R.id.cb_targeted_broadcast, PttPreferences.isTargetedBroadcast(this));
+        cbBroadcastAck = setupCheckBox(R.id.cb_broadcast_ack, PttPreferences.isBroadcastAck(this));
+        cbKeyCapture = setupCheckBox(R.id.cb_key_capture, PttPreferences.isKeyCapture(this));
+        cbVerboseLog = setupCheckBox(R.id.cb_verbose_log, PttPreferences.isVerboseLog(this));
+    }
+
+    private EditText setupNumberField(int id, int value) {
+        EditText field = (EditText) findViewById(id);
+        if (field != null) {
+            field.setText(String.valueOf(value));
+        }
+        return field;
+    }
+
+    private CheckBox setupCheckBox(int id, boolean checked) {
+        CheckBox checkBox = (CheckBox) findViewById(id);
+        if (checkBox != null) {
+            checkBox.setChecked(checked);
+        }
+        return checkBox;
+    }
+
+    /**
+     * Compares the options with the saved ones and, if write is set, stores those that differ.
+     *
+     * @return true if any option differs
+     */
+    private boolean saveOptions(boolean write) {
+        boolean changed = false;
+        int millis = readMillis(etReleaseDebounceMs, PttPreferences.DEFAULT_RELEASE_DEBOUNCE_MS);
+        if (millis != PttPreferences.getReleaseDebounceMs(this)) {
+            if (write) {
+                PttPreferences.setReleaseDebounceMs(this, millis);
+            }
+            changed = true;
+        }
+        millis = readMillis(etColdStartHoldMs, PttPreferences.DEFAULT_COLD_START_HOLD_MS);
+        if (millis != PttPreferences.getColdStartHoldMs(this)) {
+            if (write) {
+                PttPreferences.setColdStartHoldMs(this, millis);
+            }
+            changed = true;
+        }
+        millis = readMillis(etMaxPressMs, PttPreferences.DEFAULT_MAX_PRESS_MS);
+        if (millis != PttPreferences.getMaxPressMs(this)) {
+            if (write) {
+                PttPreferences.setMaxPressMs(this, millis);
+            }
+            changed = true;
+        }
+        millis = readMillis(etDoublePressWindowMs, 0);
+        if (millis != PttPreferences.getDoublePressWindowMs(this)) {
+            if (write) {
+                PttPreferences.setDoublePressWindowMs(this, millis);
+            }
+            changed = true;
+        }
+        millis = readMillis(etLongPressMs, 0);
+        if (millis != PttPreferences.getLongPressMs(this)) {
+            if (write) {
+                PttPreferences.setLongPressMs(this, millis);
+            }
+            changed = true;
+        }
+        if (cbTargetedBroadcast != null && cbTargetedBroadcast.isChecked() != PttPreferences.isTargetedBroadcast(this)) {
+            if (write) {
+                PttPreferences.setTargetedBroadcast(this, cbTargetedBroadcast.isChecked());
+            }
+            changed = true;
+        }
+        if (cbBroadcastAck != null && cbBroadcastAck.isChecked() != PttPreferences.isBroadcastAck(this)) {
+            if (write) {
+                PttPreferences.setBroadcastAck(this, cbBroadcastAck.isChecked());
+            }
+            changed = true;
+        }
+        if (cbKeyCapture != null && cbKeyCapture.isChecked() != PttPreferences.isKeyCapture(this)) {
+            if (write) {
+                PttPreferences.setKeyCapture(this, cbKeyCapture.isChecked());
+            }
+            changed = true;
+        }
+        if (cbVerboseLog != null && cbVerboseLog.isChecked() != PttPreferences.isVerboseLog(this)) {
+            if (write) {
+                PttPreferences.setVerboseLog(this, cbVerboseLog.isChecked());
+            }
+            changed = true;
+        }
+        return changed;
+    }
+
+    /**
+     * Returns the field's value, or defaultValue if it is empty. The fields take digits only.
+     */
+    private static int readMillis(EditText field, int defaultValue) {
+        String text = field != null ? field.getText().toString().trim() : "";
+        if (text.isEmpty()) {
+            return defaultValue;
+        }
+        try {
+            return Integer.parseInt(text);
+        } catch (NumberFormatException e) {
+            return defaultValue;
+        }
+    }
+
     @Override
     protected void onResume() {
         super.onResume();
         if (tvKeyCode != null) {
             tvKeyCode.requestFocus();
         }
+        keyDiscovery = PTTAccessibilityService.startKeyDiscovery();
+        shownDiscoveryVersion = -1;
+        uiHandler.post(discoveryRefresh);
+    }
+
+    @Override
+    protected void onPause() {
+        uiHandler.removeCallbacks(discoveryRefresh);
+        PTTAccessibilityService.stopKeyDiscovery(keyDiscovery);
+        super.onPause();
+    }
+
+    /**
+     * Redraws the discovered keys if anything changed.
+     */
+    private void showDiscoveredKeys() {
+        if (tvDiscoveredKeys == null || keyDiscovery == null) {
+            return;
+        }
+        long version = keyDiscovery.version();
+        if (version == shownDiscoveryVersion) {
+            return;
+        }
+        shownDiscoveryVersion = version;
+
+        discoveryText.setLength(0);
+        discoveryText.append("Discovered keys (tap to assign the last one):\n");
+        keyDiscovery.appendTo(discoveryText);
+        tvDiscoveredKeys.setText(discoveryText);
+    }
+
+    /**
+     * Takes the most recently pressed discovered key as the key to assign, for keys
+     * the window does not see itself. Called only from a tap on the list.
+     */
+    private void adoptDiscoveredKey() {
+        KeyDiscovery.Candidate recent = keyDiscovery != null ? keyDiscovery.mostRecent() : null;
+        if (recent == null) {
+            Toast.makeText(this, "Press a key first", Toast.LENGTH_SHORT).show();
+            return;
+        }
+        lastKeyCode = recent.getKeyCode();
+        InputDevice device = InputDevice.getDevice(recent.getDeviceId());
+        lastDeviceDescriptor = device != null ? device.getDescriptor() : null;
+        lastDeviceName = device != null ? device.getName() : null;
+        if (tvKeyCode != null) {
+            keyText.setLength(0);
+            keyText.append("keyCode=").append(lastKeyCode)
+                    .append(" (").append(KeyEvent.keyCodeToString(lastKeyCode)).append(")\n")
+                    .append("seen by the accessibility service only");
+            tvKeyCode.setText(keyText);
+            tvKeyCode.requestFocus();
+        }
+        showMapping();
+    }
+
+    /**
+     * Writes the discovered keys to the app's external files directory (and the log),
+     * for provisioning records of new hardware models.
+     */
+    private void saveDiscoveredKeys() {
+        if (keyDiscovery == null || keyDiscovery.version() == 0) {
+            return;
+        }
+        StringBuilder report = new StringBuilder();
+        report.append(android.os.Build.MANUFACTURER).append(' ').append(android.os.Build.MODEL).append('\n');
+        keyDiscovery.appendTo(report);
+        Log.i(TAG, "Discovered keys on " + report);
+        File dir = getExternalFilesDir(null);
+        if (dir == null) {
+            dir = getFilesDir();
+        }
+        OutputStream out = null;
+        try {
+            out = new FileOutputStream(new File(dir, DISCOVERY_FILE));
+            out.write(report.toString().getBytes("UTF-8"));
+        } catch (IOException e) {
+            Log.w(TAG, "Error saving discovered keys", e);
+        } finally {
+            if (out != null) {
+                try {
+                    out.close();
+                } catch (IOException e) {
+                    Log.w(TAG, "Error closing " + DISCOVERY_FILE, e);
+                }
+            }
+        }
     }
 
     @Override
@@ -67,26 +449,39 @@ public class PttKeySetupActivity extends AppCompatActivity {
             return true;
         }
 
-        String info = formatEvent(event);
-        Log.d(TAG, info);
+        if (getCurrentFocus() instanceof EditText) {
+            // Typing into an option field, not pressing a key to assign
+            return super.dispatchKeyEvent(event);
+        }
 
         if (event.getAction() == KeyEvent.ACTION_DOWN) {
             lastKeyCode = event.getKeyCode();
+            InputDevice device = event.getDevice();
+            lastDeviceDescriptor = device != null ? device.getDescriptor() : null;
+            lastDeviceName = device != null ? device.getName() : null;
+            showMapping();
         }
 
         if (tvKeyCode != null) {
+            // DOWN starts the text, UP is appended to it; autorepeat DOWNs only replace it
             if (event.getAction() == KeyEvent.ACTION_DOWN) {
-                tvKeyCode.setText(info);
+                keyText.setLength(0);
+                appendEvent(keyText, event);
+                tvKeyCode.setText(keyText);
             } else if (event.getAction() == KeyEvent.ACTION_UP) {
-                String downAndUpText = tvKeyCode.getText() + "\n\n" + info;
-                tvKeyCode.setText(downAndUpText);
+                keyText.append("\n\n");
+                appendEvent(keyText, event);
+                tvKeyCode.setText(keyText);
             }
         }
+        if (PttLog.isVerbose()) {
+            Log.d(TAG, "Key event " + event);
+        }
 
         return false;
     }
 
-    private String formatEvent(KeyEvent e) {
+    private static void appendEvent(StringBuilder sb, KeyEvent e) {
         String action;
         switch (e.getAction()) {
             case KeyEvent.ACTION_DOWN:
@@ -99,10 +494,16 @@ public class PttKeySetupActivity extends AppCompatActivity {
                 action = String.valueOf(e.getAction());
         }
 
-        String keyName = KeyEvent.keyCodeToString(e.getKeyCode());
-
-        return action +
-                "  keyCode=" + e.getKeyCode() + " (" + keyName + ")" +
-                "  scanCode=" + e.getScanCode();
+        InputDevice device = e.getDevice();
+        sb.append(action)
+                .append("  keyCode=").append(e.getKeyCode())
+                .append(" (").append(KeyEvent.keyCodeToString(e.getKeyCode())).append(')')
+                .append("  scanCode=").append(e.getScanCode())
+                .append("  device=");
+        if (device != null) {
+            sb.append(device.getName());
+        } else {
+            sb.append(e.getDeviceId());
+        }
     }
 }
@@ -0,0 +1,58 @@
+package ru.chepil.hytalkptt;
+
+import android.app.Activity;
+import android.content.Intent;
+import android.os.Bundle;
+import android.os.SystemClock;
+import android.util.Log;
+
+import ru.chepil.hytalkptt.core.DispatchPolicy;
+
+/**
+ * Layout-free entry point for Programmable Keys ("HyTalkPTT Fast" in the launcher).
+ * It launches HyTalk through the cached HyTalkResolver intent and finishes in onCreate.
+ * There is no content view, no AppCompat and no settings work, and the window is
+ * never shown (Theme.NoDisplay).
+ *
+ * Programmable Keys only reports the press, not the release, so no PTT_DOWN is sent
+ * from here; PTT signals come from PTTAccessibilityService. When the service already
+ * launched HyTalk for the same press (MainActivity.PRESS_COORDINATOR), nothing is started.
+ * Nor is it when the device is locked or dark and HyTalk is running: the service's
+ * PTT_DOWN reaches it without a launch (MainActivity.chooseDispatchPolicy).
+ */
+public class PttLaunchActivity extends Activity {
+
+    private static final String TAG = "PttLaunchActivity";
+
+    @Override
+    protected void onCreate(Bundle savedInstanceState) {
+        long startTime = SystemClock.uptimeMillis();
+        super.onCreate(savedInstanceState);
+
+        long generation = MainActivity.PRESS_COORDINATOR.join(startTime);
+        Intent launchIntent = HyTalkResolver.getInstance(this).getLaunchIntent();
+        boolean claimed = MainActivity.PRESS_COORDINATOR.claimLaunch(generation);
+        int policy = claimed ? MainActivity.chooseDispatchPolicy() : DispatchPolicy.POLICY_BROADCAST_ONLY;
+        if (!claimed) {
+            Log.d(TAG, "HyTalk already launched for press " + generation);
+        } else if (!DispatchPolicy.launches(policy)) {
+            Log.d(TAG, "Device locked - press " + generation + " left to the PTT broadcast");
+            LaunchStartStats.recordPolicy(policy, startTime);
+        } else if (launchIntent == null) {
+            // Nothing to launch: show the setup screen instead
+            Log.w(TAG, "HyTalk app not found - opening MainActivity");
+            startActivity(new Intent(this, MainActivity.class));
+        } else {
+            try {
+                startActivity(launchIntent);
+                LaunchStartStats.record(LaunchStartStats.ENTRY_FAST, startTime);
+                LaunchStartStats.recordPolicy(policy, startTime);
+            } catch (Exception e) {
+                Log.e(TAG, "Failed to start HyTalk app", e);
+            }
+        }
+        // No release will follow from Programmable Keys
+        MainActivity.PRESS_COORDINATOR.leave(generation);
+        finish();
+    }
+}
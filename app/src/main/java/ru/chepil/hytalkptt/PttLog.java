@@ -0,0 +1,21 @@
+package ru.chepil.hytalkptt;
+
+/**
+ * Runtime switch for per-press logcat output. Off by default: press handling is
+ * recorded in PressHandler's TraceBuffer instead, so the hot path builds no log
+ * strings and makes no logd calls. Errors and warnings are always logged.
+ */
+final class PttLog {
+
+    private static volatile boolean verbose;
+
+    private PttLog() {}
+
+    static boolean isVerbose() {
+        return verbose;
+    }
+
+    static void setVerbose(boolean enabled) {
+        verbose = enabled;
+    }
+}
@@ -3,16 +3,51 @@ package ru.chepil.hytalkptt;
 import android.content.Context;
 import android.content.SharedPreferences;
 
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import ru.chepil.hytalkptt.core.KeyActionTable;
+
 /**
  * PTT keycode stored in app sandbox (SharedPreferences).
  * Default 228 (Motorola LEX F10), overridable via PttKeySetupActivity.
+ * Several keys (PTT, emergency, channel up/down) can be mapped with key_actions;
+ * without it the single ptt_keycode is the only mapped key. device_key_actions holds
+ * overrides for individual input devices (e.g. a remote speaker mic), keyed by
+ * InputDevice descriptor.
  */
 public final class PttPreferences {
 
     private static final String PREFS_NAME = "ru.chepil.hytalkptt.ptt_prefs";
     private static final String KEY_PTT_KEYCODE = "ptt_keycode";
+    private static final String KEY_KEY_ACTIONS = "key_actions";
+    private static final String KEY_DEVICE_KEY_ACTIONS = "device_key_actions";
+    private static final String KEY_RELEASE_DEBOUNCE_MS = "release_debounce_ms";
+    private static final String KEY_TARGETED_BROADCAST = "targeted_broadcast";
+    private static final String KEY_BROADCAST_ACK = "broadcast_ack";
+    private static final String KEY_VERBOSE_LOG = "verbose_log";
+    private static final String KEY_COLD_START_HOLD_MS = "cold_start_hold_ms";
+    private static final String KEY_DOUBLE_PRESS_WINDOW_MS = "double_press_window_ms";
+    private static final String KEY_LONG_PRESS_MS = "long_press_ms";
+    private static final String KEY_MAX_PRESS_MS = "max_press_ms";
+    private static final String KEY_KEY_CAPTURE = "key_capture";
     /** Default PTT keycode for Motorola LEX F10. */
     public static final int DEFAULT_PTT_KEYCODE = 228;
+    /**
+     * Default release debounce window. Worn buttons on rugged units chatter for a few ms;
+     * a release shorter than this is treated as part of the same press.
+     */
+    public static final int DEFAULT_RELEASE_DEBOUNCE_MS = 30;
+    /**
+     * Default longest hold of PTT_DOWN while a cold HyTalk starts; covers a cold
+     * start on the slowest supported devices. 0 sends PTT_DOWN at once.
+     */
+    public static final int DEFAULT_COLD_START_HOLD_MS = 3000;
+    /**
+     * Default longest PTT press before the watchdog sends PTT_UP on its own, in case the
+     * key's ACTION_UP was lost. Above any normal talk spurt; 0 disables the watchdog.
+     */
+    public static final int DEFAULT_MAX_PRESS_MS = 120000;
 
     private PttPreferences() {}
 
@@ -21,10 +56,240 @@ public final class PttPreferences {
                 .getInt(KEY_PTT_KEYCODE, DEFAULT_PTT_KEYCODE);
     }
 
+    /**
+     * Key mapping used by PTTAccessibilityService.
+     */
+    public static KeyActionTable getKeyActions(Context context) {
+        SharedPreferences prefs = context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+        String text = prefs.getString(KEY_KEY_ACTIONS, null);
+        if (text == null || text.isEmpty()) {
+            return KeyActionTable.ofPtt(prefs.getInt(KEY_PTT_KEYCODE, DEFAULT_PTT_KEYCODE));
+        }
+        return KeyActionTable.parse(text);
+    }
+
+    /**
+     * True once a key_actions mapping has been saved; until then the mapping is the
+     * single ptt_keycode.
+     */
+    public static boolean hasKeyActions(Context context) {
+        String text = context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE)
+                .getString(KEY_KEY_ACTIONS, null);
+        return text != null && !text.isEmpty();
+    }
+
+    /**
+     * Saves the key mapping. ptt_keycode follows the first PTT key, so code that
+     * only knows one PTT key keeps working.
+     */
+    public static void setKeyActions(Context context, KeyActionTable table) {
+        SharedPreferences.Editor editor = context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE)
+                .edit()
+                .putString(KEY_KEY_ACTIONS, table.encode());
+        int pttKeyCode = table.firstKeyFor(KeyActionTable.ACTION_PTT);
+        if (pttKeyCode >= 0) {
+            editor.putInt(KEY_PTT_KEYCODE, pttKeyCode);
+        }
+        editor.apply();
+    }
+
+    /**
+     * Per-device overrides: InputDevice descriptor -> mapping for that device only.
+     * Stored as "descriptor=keycode:action,...;descriptor=...".
+     */
+    public static Map<String, KeyActionTable> getDeviceKeyActions(Context context) {
+        String text = context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE)
+                .getString(KEY_DEVICE_KEY_ACTIONS, null);
+        Map<String, KeyActionTable> mappings = new LinkedHashMap<String, KeyActionTable>();
+        if (text == null) {
+            return mappings;
+        }
+        for (String entry : text.split(";")) {
+            int equals = entry.indexOf('=');
+            if (equals <= 0) {
+                continue;
+            }
+            KeyActionTable table = KeyActionTable.parse(entry.substring(equals + 1));
+            if (table.nextMappedKey(0) >= 0) {
+                mappings.put(entry.substring(0, equals), table);
+            }
+        }
+        return mappings;
+    }
+
+    public static void setDeviceKeyActions(Context context, Map<String, KeyActionTable> mappings) {
+        StringBuilder sb = new StringBuilder();
+        for (Map.Entry<String, KeyActionTable> entry : mappings.entrySet()) {
+            String encoded = entry.getValue().encode();
+            if (encoded.isEmpty()) {
+                continue;
+            }
+            if (sb.length() > 0) {
+                sb.append(';');
+            }
+            sb.append(entry.getKey()).append('=').append(encoded);
+        }
+        context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE)
+                .edit()
+                .putString(KEY_DEVICE_KEY_ACTIONS, sb.toString())
+                .apply();
+    }
+
+    public static int getReleaseDebounceMs(Context context) {
+        return context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE)
+                .getInt(KEY_RELEASE_DEBOUNCE_MS, DEFAULT_RELEASE_DEBOUNCE_MS);
+    }
+
+    public static void setReleaseDebounceMs(Context context, int millis) {
+        context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE)
+                .edit()
+                .putInt(KEY_RELEASE_DEBOUNCE_MS, millis)
+                .apply();
+    }
+
+    public static int getColdStartHoldMs(Context context) {
+        return context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE)
+                .getInt(KEY_COLD_START_HOLD_MS, DEFAULT_COLD_START_HOLD_MS);
+    }
+
+    public static void setColdStartHoldMs(Context context, int millis) {
+        context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE)
+                .edit()
+                .putInt(KEY_COLD_START_HOLD_MS, millis)
+                .apply();
+    }
+
+    /**
+     * Whether key events reaching the accessibility filter are captured for offline replay
+     * (saved with dumpsys ... keytrace). Off by default.
+     */
+    public static boolean isKeyCapture(Context context) {
+        return context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE)
+                .getBoolean(KEY_KEY_CAPTURE, false);
+    }
+
+    public static void setKeyCapture(Context context, boolean enabled) {
+        context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE)
+                .edit()
+                .putBoolean(KEY_KEY_CAPTURE, enabled)
+                .apply();
+    }
+
+    public static int getMaxPressMs(Context context) {
+        return context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE)
+                .getInt(KEY_MAX_PRESS_MS, DEFAULT_MAX_PRESS_MS);
+    }
+
+    public static void setMaxPressMs(Context context, int millis) {
+        context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE)
+                .edit()
+                .putInt(KEY_MAX_PRESS_MS, millis)
+                .apply();
+    }
+
+    /**
+     * Longest gap between a PTT release and the next press for a double press (emergency);
+     * the second press must also be released within it. 0 (default) disables it.
+     */
+    public static int getDoublePressWindowMs(Context context) {
+        return context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE)
+                .getInt(KEY_DOUBLE_PRESS_WINDOW_MS, 0);
+    }
+
+    public static void setDoublePressWindowMs(Context context, int millis) {
+        context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE)
+                .edit()
+                .putInt(KEY_DOUBLE_PRESS_WINDOW_MS, millis)
+                .apply();
+    }
+
+    /**
+     * PTT hold time for a long press (priority call). 0 (default) disables it.
+     */
+    public static int getLongPressMs(Context context) {
+        return context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE)
+                .getInt(KEY_LONG_PRESS_MS, 0);
+    }
+
+    public static void setLongPressMs(Context context, int millis) {
+        context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE)
+                .edit()
+                .putInt(KEY_LONG_PRESS_MS, millis)
+                .apply();
+    }
+
+    /**
+     * Whether PTT broadcasts go only to the HyTalk package. Off by default:
+     * the implicit broadcast reaches HyTalk builds that register under another package.
+     */
+    public static boolean isTargetedBroadcast(Context context) {
+        return context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE)
+                .getBoolean(KEY_TARGETED_BROADCAST, false);
+    }
+
+    public static void setTargetedBroadcast(Context context, boolean targeted) {
+        context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE)
+                .edit()
+                .putBoolean(KEY_TARGETED_BROADCAST, targeted)
+                .apply();
+    }
+
+    /**
+     * Whether targeted broadcasts are sent ordered, to measure their delivery latency.
+     * Nothing is resent: the result does not prove HyTalk received the signal.
+     */
+    public static boolean isBroadcastAck(Context context) {
+        return context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE)
+                .getBoolean(KEY_BROADCAST_ACK, false);
+    }
+
+    public static void setBroadcastAck(Context context, boolean acknowledged) {
+        context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE)
+                .edit()
+                .putBoolean(KEY_BROADCAST_ACK, acknowledged)
+                .apply();
+    }
+
+    /**
+     * Whether every press is also written to logcat. Off by default; the service
+     * keeps an in-memory trace that can be dumped instead.
+     */
+    public static boolean isVerboseLog(Context context) {
+        return context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE)
+                .getBoolean(KEY_VERBOSE_LOG, false);
+    }
+
+    public static void setVerboseLog(Context context, boolean verbose) {
+        context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE)
+                .edit()
+                .putBoolean(KEY_VERBOSE_LOG, verbose)
+                .apply();
+    }
+
+    /**
+     * Registers a listener for PTT preference changes.
+     * SharedPreferences keeps only a weak reference, so the caller must hold on to the listener.
+     */
+    public static void registerListener(Context context,
+                                        SharedPreferences.OnSharedPreferenceChangeListener listener) {
+        context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE)
+                .registerOnSharedPreferenceChangeListener(listener);
+    }
+
+    public static void unregisterListener(Context context,
+                                          SharedPreferences.OnSharedPreferenceChangeListener listener) {
+        context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE)
+                .unregisterOnSharedPreferenceChangeListener(listener);
+    }
+
+    /**
+     * Makes keyCode the only mapped key (PTT), replacing any key_actions mapping.
+     */
     public static void setPttKeyCode(Context context, int keyCode) {
         context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE)
                 .edit()
                 .putInt(KEY_PTT_KEYCODE, keyCode)
+                .remove(KEY_KEY_ACTIONS)
                 .apply();
     }
 
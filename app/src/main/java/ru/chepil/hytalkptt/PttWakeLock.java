@@ -0,0 +1,122 @@
+package ru.chepil.hytalkptt;
+
+import android.content.Context;
+import android.os.PowerManager;
+import android.os.SystemClock;
+import android.util.Log;
+
+import ru.chepil.hytalkptt.core.LatencyHistogram;
+
+/**
+ * Keeps the CPU awake from a PTT ACTION_DOWN until its PTT_DOWN has gone out, so a press
+ * with the screen off is not stalled by the device suspending again halfway through the
+ * launch and broadcast. The partial wake lock is taken as the first step of handling a
+ * new press's DOWN on the dispatch thread and has a hard cap (see acquire()); it is released
+ * once that press's PTT_DOWN is sent (with broadcast_ack, once its delivery result is in
+ * or overdue). The input callback only queues the DOWN and makes no PowerManager call;
+ * while it delivers the key event, the input system keeps the device awake itself.
+ *
+ * Also records key-to-PTT_DOWN latency split by the screen state at the press, to check
+ * that locked-screen presses transmit as fast as unlocked ones.
+ *
+ * Dispatch thread only, apart from appendReport() reading the counters.
+ */
+final class PttWakeLock {
+
+    private static final String TAG = "PttWakeLock";
+
+    // Shortest cap, for presses whose PTT_DOWN is not held back
+    static final long MIN_HOLD_MS = 5000;
+    // Added to the configured hold: launch work plus the broadcast result timeout, with room to spare
+    static final long HOLD_MARGIN_MS = 2000;
+
+    private final PowerManager.WakeLock wakeLock;
+    // Tracked from screen broadcasts, so reading it is a field read
+    private final ScreenState screenState;
+
+    private volatile long acquisitions;
+    private long acquiredAt;
+    private boolean acquired;
+    private long cap;
+    private long seenDownSignals;
+    private boolean pressScreenOn;
+    private final LatencyHistogram screenOnLatency = new LatencyHistogram();
+    private final LatencyHistogram screenOffLatency = new LatencyHistogram();
+    private final LatencyHistogram heldTime = new LatencyHistogram();
+    private volatile long capExpiries;
+
+    PttWakeLock(Context context, ScreenState screenState) {
+        this.screenState = screenState;
+        PowerManager powerManager = (PowerManager) context.getSystemService(Context.POWER_SERVICE);
+        wakeLock = powerManager.newWakeLock(PowerManager.PARTIAL_WAKE_LOCK, "HyTalkPTT:ptt_dispatch");
+        // One press at a time: a new DOWN extends the lock instead of stacking another one
+        wakeLock.setReferenceCounted(false);
+    }
+
+    /**
+     * Takes the wake lock for a new press, before the press handler sees its DOWN. The cap
+     * is the longer of MIN_HOLD_MS and holdMs plus HOLD_MARGIN_MS, so a configured hold
+     * never outlasts the lock.
+     *
+     * @param holdMs longest time the press handler may hold PTT_DOWN back (cold-start hold,
+     *               double-press window)
+     */
+    void acquire(long holdMs) {
+        pressScreenOn = screenState.isScreenOn();
+        acquiredAt = SystemClock.uptimeMillis();
+        acquired = true;
+        acquisitions++;
+        cap = Math.max(MIN_HOLD_MS, holdMs + HOLD_MARGIN_MS);
+        wakeLock.acquire(cap);
+    }
+
+    /**
+     * Records PTT_DOWNs sent since the last call and releases the wake lock once
+     * nothing is pending for the current press.
+     *
+     * @param downSignals    PressHandler.getDownSignals()
+     * @param pressEventTime event time of the press the signal belongs to
+     * @param pending        a PTT_DOWN is still held back or awaiting acknowledgement
+     */
+    void onDispatched(long downSignals, long pressEventTime, boolean pending, long now) {
+        if (downSignals != seenDownSignals) {
+            seenDownSignals = downSignals;
+            (pressScreenOn ? screenOnLatency : screenOffLatency).record(now - pressEventTime);
+        }
+        if (pending || !acquired) {
+            return;
+        }
+        acquired = false;
+        heldTime.record(now - acquiredAt);
+        if (wakeLock.isHeld()) {
+            wakeLock.release();
+        } else {
+            capExpiries++;
+            Log.w(TAG, "PTT dispatch outlasted the wake lock cap of " + cap + "ms");
+        }
+    }
+
+    /**
+     * Releases the wake lock if still held. Dispatch thread.
+     */
+    void release() {
+        acquired = false;
+        if (wakeLock.isHeld()) {
+            wakeLock.release();
+        }
+    }
+
+    /**
+     * Appends the wake lock counters and the key-to-PTT_DOWN latency by screen state.
+     */
+    void appendReport(StringBuilder sb) {
+        sb.append("wake lock: acquisitions=").append(acquisitions)
+                .append(" capExpiries=").append(capExpiries)
+                .append(" held ");
+        heldTime.appendSummary(sb);
+        sb.append("\nbroadcast_sent screen_on: ");
+        screenOnLatency.appendSummary(sb);
+        sb.append("\nbroadcast_sent screen_off: ");
+        screenOffLatency.appendSummary(sb);
+    }
+}
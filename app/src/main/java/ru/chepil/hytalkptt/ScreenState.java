@@ -0,0 +1,106 @@
+package ru.chepil.hytalkptt;
+
+import android.app.KeyguardManager;
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.os.PowerManager;
+import android.util.Log;
+
+import ru.chepil.hytalkptt.core.DeviceState;
+
+/**
+ * Screen and keyguard state for the dispatch policy and the wake lock statistics.
+ *
+ * While tracking (the accessibility service), both come from broadcasts received on
+ * the main thread, so reading them on the press path is a field read: SCREEN_OFF marks
+ * the device dark and locked, USER_PRESENT unlocked, and SCREEN_ON re-reads the keyguard
+ * once (it may not have engaged, or may be disabled). The activities read the service's
+ * tracked instance (PTTAccessibilityService.getScreenState()). Untracked, each call asks
+ * PowerManager and KeyguardManager.
+ */
+final class ScreenState implements DeviceState {
+
+    private static final String TAG = "ScreenState";
+
+    private final Context context;
+    private final PowerManager powerManager;
+    private final KeyguardManager keyguardManager;
+
+    private volatile boolean tracking;
+    private volatile boolean screenOn;
+    private volatile boolean locked;
+
+    private final BroadcastReceiver screenReceiver = new BroadcastReceiver() {
+        @Override
+        public void onReceive(Context context, Intent intent) {
+            String action = intent.getAction();
+            if (Intent.ACTION_SCREEN_OFF.equals(action)) {
+                screenOn = false;
+                locked = true;
+            } else if (Intent.ACTION_SCREEN_ON.equals(action)) {
+                screenOn = true;
+                locked = queryLocked();
+            } else if (Intent.ACTION_USER_PRESENT.equals(action)) {
+                locked = false;
+            }
+        }
+    };
+
+    ScreenState(Context context) {
+        this.context = context;
+        powerManager = (PowerManager) context.getSystemService(Context.POWER_SERVICE);
+        keyguardManager = (KeyguardManager) context.getSystemService(Context.KEYGUARD_SERVICE);
+    }
+
+    /**
+     * Follows screen and unlock broadcasts on the main thread until stopTracking().
+     */
+    void startTracking() {
+        screenOn = powerManager == null || powerManager.isInteractive();
+        locked = queryLocked();
+        IntentFilter filter = new IntentFilter(Intent.ACTION_SCREEN_ON);
+        filter.addAction(Intent.ACTION_SCREEN_OFF);
+        filter.addAction(Intent.ACTION_USER_PRESENT);
+        context.registerReceiver(screenReceiver, filter);
+        tracking = true;
+    }
+
+    void stopTracking() {
+        if (!tracking) {
+            return;
+        }
+        tracking = false;
+        try {
+            context.unregisterReceiver(screenReceiver);
+        } catch (IllegalArgumentException e) {
+            Log.w(TAG, "Screen receiver already unregistered");
+        }
+    }
+
+    @Override
+    public boolean isScreenOn() {
+        if (tracking) {
+            return screenOn;
+        }
+        return powerManager == null || powerManager.isInteractive();
+    }
+
+    @Override
+    public boolean isLocked() {
+        if (tracking) {
+            return locked;
+        }
+        return queryLocked();
+    }
+
+    private boolean queryLocked() {
+        try {
+            return keyguardManager != null && keyguardManager.isKeyguardLocked();
+        } catch (Exception e) {
+            Log.w(TAG, "Failed to query keyguard: " + e.getMessage());
+            return false;
+        }
+    }
+}
@@ -0,0 +1,93 @@
+package ru.chepil.hytalkptt;
+
+import android.content.Context;
+import android.content.Intent;
+import android.util.Log;
+
+import ru.chepil.hytalkptt.core.GestureListener;
+import ru.chepil.hytalkptt.core.KeyActionTable;
+
+/**
+ * Sends the non-PTT key actions (emergency, channel up/down) as broadcasts.
+ * HyTalk has no documented intents for these functions, so they go out under this
+ * app's namespace with the keycode as an extra; the receiving side (HyTalk build,
+ * MDM profile or automation app) subscribes to them. Sent once per key press.
+ *
+ * PTT key gestures map onto the same broadcasts: a double press sends EMERGENCY,
+ * a long press sends PRIORITY_CALL.
+ */
+final class SideKeyActions implements GestureListener {
+
+    private static final String TAG = "SideKeyActions";
+
+    static final String ACTION_EMERGENCY = "ru.chepil.hytalkptt.action.EMERGENCY";
+    static final String ACTION_CHANNEL_UP = "ru.chepil.hytalkptt.action.CHANNEL_UP";
+    static final String ACTION_CHANNEL_DOWN = "ru.chepil.hytalkptt.action.CHANNEL_DOWN";
+    static final String ACTION_PRIORITY_CALL = "ru.chepil.hytalkptt.action.PRIORITY_CALL";
+    static final String EXTRA_KEYCODE = "keycode";
+
+    private final Context context;
+
+    private volatile long sent;
+    private volatile long failed;
+
+    SideKeyActions(Context context) {
+        this.context = context;
+    }
+
+    /**
+     * @param action KeyActionTable action other than ACTION_PTT
+     * @return true if the broadcast was sent
+     */
+    boolean send(int action, int keyCode) {
+        String intentAction;
+        switch (action) {
+            case KeyActionTable.ACTION_EMERGENCY:
+                intentAction = ACTION_EMERGENCY;
+                break;
+            case KeyActionTable.ACTION_CHANNEL_UP:
+                intentAction = ACTION_CHANNEL_UP;
+                break;
+            case KeyActionTable.ACTION_CHANNEL_DOWN:
+                intentAction = ACTION_CHANNEL_DOWN;
+                break;
+            default:
+                return false;
+        }
+        return broadcast(intentAction, keyCode);
+    }
+
+    @Override
+    public void onGesture(int gesture, int keyCode) {
+        if (gesture == GESTURE_DOUBLE_PRESS) {
+            broadcast(ACTION_EMERGENCY, keyCode);
+        } else if (gesture == GESTURE_LONG_PRESS) {
+            broadcast(ACTION_PRIORITY_CALL, keyCode);
+        }
+    }
+
+    private boolean broadcast(String intentAction, int keyCode) {
+        try {
+            Intent intent = new Intent(intentAction);
+            intent.putExtra(EXTRA_KEYCODE, keyCode);
+            context.sendBroadcast(intent);
+            sent++;
+            if (PttLog.isVerbose()) {
+                Log.d(TAG, "Sent " + intentAction + " for keyCode=" + keyCode);
+            }
+            return true;
+        } catch (Exception e) {
+            failed++;
+            Log.e(TAG, "Error sending " + intentAction, e);
+            return false;
+        }
+    }
+
+    long getSent() {
+        return sent;
+    }
+
+    long getFailed() {
+        return failed;
+    }
+}
@@ -0,0 +1,208 @@
+package ru.chepil.hytalkptt;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.os.Handler;
+import android.os.SystemClock;
+import android.util.Log;
+
+import ru.chepil.hytalkptt.core.LatencyHistogram;
+
+/**
+ * Sends PTT_DOWN / PTT_UP only to the resolved HyTalk package,
+ * so system_server does not fan the broadcast out to every receiver.
+ *
+ * With delivery measurement enabled (broadcast_ack) the broadcast is ordered and
+ * carries a result receiver, which the system runs once the broadcast has been through
+ * HyTalk's receivers. That gives a delivery latency only: the final receiver also runs
+ * when no receiver matched, so it does not confirm that HyTalk got the signal, and
+ * nothing is resent. Results slower than RESULT_TIMEOUT_MS are counted as slow and
+ * stop holding the dispatch wake lock. Result callbacks run on the dispatch thread
+ * (the handler passed in).
+ */
+final class TargetedBroadcastDelivery implements PttDelivery {
+
+    private static final String TAG = "TargetedBroadcast";
+
+    // A result later than this counts as slow; the wake lock stops waiting for it
+    private static final long RESULT_TIMEOUT_MS = 300;
+
+    private final Context context;
+    private final HyTalkResolver hyTalkResolver;
+    private final Handler handler;
+
+    private volatile boolean acknowledged;
+    private Runnable settledListener;
+
+    // Ordered broadcast in flight; its sequence number travels as the initial result code
+    private int pendingSeq;
+    private boolean pendingDown;
+    private boolean pendingDone = true;
+    // Its result is overdue; the wake lock no longer waits for it
+    private boolean pendingSlow;
+    private long pendingSentAt;
+
+    private final LatencyHistogram resultLatency = new LatencyHistogram();
+    private volatile long results;
+    private volatile long slowResults;
+
+    private final BroadcastReceiver resultReceiver = new BroadcastReceiver() {
+        @Override
+        public void onReceive(Context context, Intent intent) {
+            if (getResultCode() != pendingSeq || pendingDone) {
+                return; // Result of an older broadcast
+            }
+            pendingDone = true;
+            handler.removeCallbacks(resultTimeout);
+            // Recorded even if slow, so the histogram shows the real tail
+            resultLatency.record(SystemClock.uptimeMillis() - pendingSentAt);
+            results++;
+            if (!pendingSlow) {
+                notifySettled();
+            }
+        }
+    };
+
+    private final Runnable resultTimeout = new Runnable() {
+        @Override
+        public void run() {
+            if (pendingDone) {
+                return;
+            }
+            pendingSlow = true;
+            slowResults++;
+            Log.w(TAG, (pendingDown ? "PTT_DOWN" : "PTT_UP") + " delivery took over " + RESULT_TIMEOUT_MS + "ms");
+            notifySettled();
+        }
+    };
+
+    TargetedBroadcastDelivery(Context context, HyTalkResolver hyTalkResolver, Handler handler) {
+        this.context = context;
+        this.hyTalkResolver = hyTalkResolver;
+        this.handler = handler;
+    }
+
+    /**
+     * @param acknowledged true to send ordered broadcasts and measure their delivery latency
+     */
+    void setAcknowledged(boolean acknowledged) {
+        this.acknowledged = acknowledged;
+    }
+
+    /**
+     * @param listener run on the dispatch thread when an ordered broadcast's result arrives
+     *                 or is overdue
+     */
+    void setSettledListener(Runnable listener) {
+        settledListener = listener;
+    }
+
+    /**
+     * True while an ordered PTT_DOWN's result is outstanding and not yet overdue.
+     * Dispatch thread only.
+     */
+    boolean isDownInFlight() {
+        return pendingDown && !pendingDone && !pendingSlow;
+    }
+
+    @Override
+    public String getName() {
+        return acknowledged ? "targeted_broadcast_ack" : "targeted_broadcast";
+    }
+
+    @Override
+    public boolean probe() {
+        String packageName = hyTalkResolver.getPackageName();
+        if (packageName == null) {
+            return false; // Nothing to target
+        }
+        try {
+            Intent intent = new Intent(ImplicitBroadcastDelivery.ACTION_PROBE);
+            intent.setPackage(packageName);
+            context.sendBroadcast(intent);
+            return true;
+        } catch (Exception e) {
+            Log.w(TAG, "Probe failed: " + e.getMessage());
+            return false;
+        }
+    }
+
+    @Override
+    public boolean send(boolean down) {
+        if (!acknowledged) {
+            Intent intent = newPttIntent(down);
+            if (intent == null) {
+                return false;
+            }
+            try {
+                context.sendBroadcast(intent);
+                if (PttLog.isVerbose()) {
+                    Log.d(TAG, "Sent PTT Broadcast Intent: " + intent.getAction() + " to " + intent.getPackage());
+                }
+                return true;
+            } catch (Exception e) {
+                Log.e(TAG, "Error sending PTT Broadcast Intent", e);
+                return false;
+            }
+        }
+        // A new signal supersedes the one in flight; the older result is not measured
+        handler.removeCallbacks(resultTimeout);
+        return sendOrdered(down);
+    }
+
+    /** Send-to-result latency of ordered broadcasts. */
+    LatencyHistogram getResultLatency() {
+        return resultLatency;
+    }
+
+    long getResults() {
+        return results;
+    }
+
+    /** Results that took longer than RESULT_TIMEOUT_MS (or never came). */
+    long getSlowResults() {
+        return slowResults;
+    }
+
+    private boolean sendOrdered(boolean down) {
+        Intent intent = newPttIntent(down);
+        if (intent == null) {
+            return false;
+        }
+        try {
+            pendingSeq++;
+            pendingDown = down;
+            pendingDone = false;
+            pendingSlow = false;
+            pendingSentAt = SystemClock.uptimeMillis();
+            context.sendOrderedBroadcast(intent, null, resultReceiver, handler, pendingSeq, null, null);
+            handler.postDelayed(resultTimeout, RESULT_TIMEOUT_MS);
+            if (PttLog.isVerbose()) {
+                Log.d(TAG, "Sent ordered PTT Broadcast Intent: " + intent.getAction() + " to " + intent.getPackage());
+            }
+            return true;
+        } catch (Exception e) {
+            pendingDone = true;
+            Log.e(TAG, "Error sending ordered PTT Broadcast Intent", e);
+            return false;
+        }
+    }
+
+    private void notifySettled() {
+        Runnable listener = settledListener;
+        if (listener != null) {
+            listener.run();
+        }
+    }
+
+    private Intent newPttIntent(boolean down) {
+        String packageName = hyTalkResolver.getPackageName();
+        if (packageName == null) {
+            return null;
+        }
+        Intent intent = new Intent(down ? ACTION_PTT_DOWN : ACTION_PTT_UP);
+        intent.setPackage(packageName);
+        return intent;
+    }
+}
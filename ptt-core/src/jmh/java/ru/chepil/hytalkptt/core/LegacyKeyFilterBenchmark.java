@@ -0,0 +1,124 @@
+package ru.chepil.hytalkptt.core;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Baseline for PressHandlerBenchmark: the key decision of the original
+ * PTTAccessibilityService.onKeyEvent, before PressHandler existed, with the same
+ * scenarios and the same counting sink. Per event it
+ * <ul>
+ *   <li>reads the PTT keycode from SharedPreferences (modelled as SharedPreferencesImpl.getInt:
+ *       a map lookup of a boxed Integer under a lock);</li>
+ *   <li>builds the Log.d message of every PTT DOWN and UP (the string is built even when
+ *       the log level drops it);</li>
+ *   <li>launches HyTalk on every DOWN, autorepeats included, and sends the PTT signal.</li>
+ * </ul>
+ * The launch and broadcast are counted, not performed, in both benchmarks; on the device
+ * each old launch also went through PackageManager, which a JVM run cannot show. Compare
+ * the launches per press as well as the time.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class LegacyKeyFilterBenchmark {
+
+    private static final int PTT_KEYCODE = 228;
+    private static final int OTHER_KEYCODE = 24; // KEYCODE_VOLUME_UP
+    private static final int ACTION_DOWN = 0;
+    private static final int ACTION_UP = 1;
+    // Same as PressHandlerBenchmark
+    private static final int REPEATS = 20;
+
+    /** The original onKeyEvent decision, Android calls replaced by the sink. */
+    static final class LegacyKeyFilter {
+        private final Object lock = new Object();
+        private final Map<String, Object> prefs = new HashMap<String, Object>();
+        private final PressHandlerBenchmark.CountingSink sink;
+        // Stands in for MainActivity.isPTTButtonPressed
+        volatile boolean pttButtonPressed;
+        // Keeps the log message from being optimised away
+        int logChars;
+
+        LegacyKeyFilter(PressHandlerBenchmark.CountingSink sink) {
+            this.sink = sink;
+            prefs.put("ptt_keycode", PTT_KEYCODE);
+        }
+
+        private int getPttKeyCode() {
+            synchronized (lock) {
+                Integer v = (Integer) prefs.get("ptt_keycode");
+                return v != null ? v : PTT_KEYCODE;
+            }
+        }
+
+        boolean onKeyEvent(int keyCode, int action, int repeatCount) {
+            int pttKeyCode = getPttKeyCode();
+            if (keyCode != pttKeyCode) {
+                return false;
+            }
+            if (action == ACTION_DOWN) {
+                logChars += ("PTT button pressed (onKeyEvent - ACTION_DOWN), keyCode=" + keyCode).length();
+                pttButtonPressed = true;
+                sink.launch();
+                if (repeatCount == 0) {
+                    sink.sendPtt(true);
+                }
+                return true;
+            } else if (action == ACTION_UP) {
+                logChars += ("PTT button released (onKeyEvent - ACTION_UP), keyCode=" + keyCode).length();
+                pttButtonPressed = false;
+                sink.sendPtt(false);
+                return true;
+            }
+            return false;
+        }
+    }
+
+    private PressHandlerBenchmark.CountingSink sink;
+    private LegacyKeyFilter filter;
+    private int keyCode;
+
+    @Setup
+    public void setUp() {
+        sink = new PressHandlerBenchmark.CountingSink();
+        filter = new LegacyKeyFilter(sink);
+        keyCode = OTHER_KEYCODE;
+    }
+
+    /** Compare with PressHandlerBenchmark.nonPttKey. */
+    @Benchmark
+    public boolean nonPttKey() {
+        return filter.onKeyEvent(keyCode, ACTION_DOWN, 0);
+    }
+
+    /** Compare with PressHandlerBenchmark.normalPress. */
+    @Benchmark
+    public long normalPress() {
+        filter.onKeyEvent(PTT_KEYCODE, ACTION_DOWN, 0);
+        filter.onKeyEvent(PTT_KEYCODE, ACTION_UP, 0);
+        return sink.signals;
+    }
+
+    /** Compare with PressHandlerBenchmark.autorepeatFlood; here every repeat launches again. */
+    @Benchmark
+    @OperationsPerInvocation(REPEATS + 2)
+    public long autorepeatFlood() {
+        filter.onKeyEvent(PTT_KEYCODE, ACTION_DOWN, 0);
+        for (int repeat = 1; repeat <= REPEATS; repeat++) {
+            filter.onKeyEvent(PTT_KEYCODE, ACTION_DOWN, repeat);
+        }
+        filter.onKeyEvent(PTT_KEYCODE, ACTION_UP, 0);
+        return sink.launches;
+    }
+}
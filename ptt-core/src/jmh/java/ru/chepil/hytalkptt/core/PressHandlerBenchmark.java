@@ -0,0 +1,165 @@
+package ru.chepil.hytalkptt.core;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Per-event cost of the PTT key decision path.
+ * Scenarios: non-PTT key (with and without per-device overrides), normal press,
+ * autorepeat flood and contact chatter.
+ * Run with the GC profiler (configured in build.gradle) to see the allocation
+ * rate: every scenario here is expected to report ~0 B/op.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class PressHandlerBenchmark {
+
+    private static final int PTT_KEYCODE = 228;
+    private static final int OTHER_KEYCODE = 24; // KEYCODE_VOLUME_UP
+    private static final int BUILT_IN_DEVICE = 3;
+    private static final int ACCESSORY_DEVICE = 9;
+    // ~1 s of autorepeat at the usual 50 ms repeat interval
+    private static final int REPEATS = 20;
+    private static final int CHATTER_BOUNCES = 3;
+    private static final long DEBOUNCE_MS = 30;
+    private static final long DOUBLE_PRESS_WINDOW_MS = 400;
+    private static final long LONG_PRESS_MS = 800;
+
+    /** Counts calls instead of talking to Android. */
+    static final class CountingSink implements LaunchTarget, SignalSender, Clock {
+        long launches;
+        long signals;
+        long now;
+
+        @Override
+        public boolean isAvailable() {
+            return true;
+        }
+
+        @Override
+        public boolean isRunning() {
+            return true;
+        }
+
+        @Override
+        public boolean launch() {
+            launches++;
+            return true;
+        }
+
+        @Override
+        public boolean sendPtt(boolean down) {
+            signals++;
+            return true;
+        }
+
+        @Override
+        public long uptimeMillis() {
+            return now;
+        }
+    }
+
+    private CountingSink sink;
+    private PressHandler handler;
+    private PressHandler chatterHandler;
+    private PressHandler accessoryHandler;
+    private PressHandler gestureHandler;
+    private int keyCode;
+
+    @Setup
+    public void setUp() {
+        sink = new CountingSink();
+        handler = new PressHandler(sink, sink, sink, PTT_KEYCODE);
+        chatterHandler = new PressHandler(sink, sink, sink, PTT_KEYCODE);
+        chatterHandler.setReleaseDebounceMs(DEBOUNCE_MS);
+        accessoryHandler = new PressHandler(sink, sink, sink, PTT_KEYCODE);
+        accessoryHandler.setDeviceKeys(new DeviceKeyMap.Builder()
+                .put(ACCESSORY_DEVICE, PTT_KEYCODE, KeyActionTable.ACTION_EMERGENCY)
+                .put(ACCESSORY_DEVICE, OTHER_KEYCODE, KeyActionTable.ACTION_PTT)
+                .build());
+        gestureHandler = new PressHandler(sink, sink, sink, PTT_KEYCODE);
+        gestureHandler.setDoublePressWindowMs(DOUBLE_PRESS_WINDOW_MS);
+        gestureHandler.setLongPressMs(LONG_PRESS_MS);
+        keyCode = OTHER_KEYCODE;
+    }
+
+    /**
+     * Cost the filter adds to every non-PTT keystroke on the device: the lookup
+     * onKeyEvent makes, actionFor(deviceId, keyCode), with no per-device overrides.
+     */
+    @Benchmark
+    public int nonPttKey() {
+        return handler.actionFor(BUILT_IN_DEVICE, keyCode);
+    }
+
+    /** Same lookup when an accessory has overrides; the key comes from the built-in keypad. */
+    @Benchmark
+    public int nonPttKeyWithDeviceOverrides() {
+        return accessoryHandler.actionFor(BUILT_IN_DEVICE, keyCode);
+    }
+
+    /** Key resolved through an accessory override. */
+    @Benchmark
+    public int accessoryKey() {
+        return accessoryHandler.actionFor(ACCESSORY_DEVICE, keyCode);
+    }
+
+    /** One complete press: DOWN (launch + PTT_DOWN) and UP. */
+    @Benchmark
+    public long normalPress() {
+        long t = ++sink.now;
+        handler.onDown(PTT_KEYCODE, 0, PressCoordinator.NO_GENERATION, t, t, false);
+        handler.onUp(PTT_KEYCODE, t);
+        return sink.signals;
+    }
+
+    /**
+     * normalPress with double- and long-press recognition on. Presses are further apart
+     * than the double-press window, so none is a gesture; compare with normalPress for
+     * the cost gestures add to a plain press (only a press inside the window is held).
+     */
+    @Benchmark
+    public long normalPressWithGestures() {
+        long t = sink.now += 1000;
+        gestureHandler.onDown(PTT_KEYCODE, 0, PressCoordinator.NO_GENERATION, t, t, false);
+        gestureHandler.onUp(PTT_KEYCODE, t);
+        return sink.signals;
+    }
+
+    /** A held button: initial DOWN, a burst of autorepeat DOWNs, then UP. Cost per event. */
+    @Benchmark
+    @OperationsPerInvocation(REPEATS + 2)
+    public long autorepeatFlood() {
+        long t = ++sink.now;
+        handler.onDown(PTT_KEYCODE, 0, PressCoordinator.NO_GENERATION, t, t, false);
+        for (int repeat = 1; repeat <= REPEATS; repeat++) {
+            handler.onDown(PTT_KEYCODE, repeat, PressCoordinator.NO_GENERATION, t, t, false);
+        }
+        handler.onUp(PTT_KEYCODE, t);
+        return sink.launches;
+    }
+
+    /** A chattering button: DOWN, then UP/DOWN bounces inside the debounce window, then UP. */
+    @Benchmark
+    @OperationsPerInvocation(2 * CHATTER_BOUNCES + 2)
+    public long chatteringPress() {
+        long t = sink.now += 1000;
+        chatterHandler.onDown(PTT_KEYCODE, 0, PressCoordinator.NO_GENERATION, t, t, false);
+        for (int i = 0; i < CHATTER_BOUNCES; i++) {
+            chatterHandler.onUp(PTT_KEYCODE, t + i);
+            chatterHandler.onDown(PTT_KEYCODE, 0, PressCoordinator.NO_GENERATION, t + i + 1, t + i + 1, false);
+        }
+        chatterHandler.onUp(PTT_KEYCODE, t + CHATTER_BOUNCES);
+        chatterHandler.onTimer(t + CHATTER_BOUNCES + DEBOUNCE_MS);
+        return sink.signals;
+    }
+}
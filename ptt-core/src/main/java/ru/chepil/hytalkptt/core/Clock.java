@@ -0,0 +1,10 @@
+package ru.chepil.hytalkptt.core;
+
+/**
+ * Monotonic time source, in the same base as key event times
+ * (SystemClock.uptimeMillis() on Android).
+ */
+public interface Clock {
+
+    long uptimeMillis();
+}
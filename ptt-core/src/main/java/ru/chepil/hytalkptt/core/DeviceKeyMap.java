@@ -0,0 +1,125 @@
+package ru.chepil.hytalkptt.core;
+
+/**
+ * Immutable per-input-device key overrides: (device id, keycode) -> KeyActionTable action.
+ * Keys are packed into one long and stored in an open-addressing table (linear probing,
+ * load factor at most 1/2), so a lookup is a hash, one or two array loads and no boxing.
+ * An empty map answers without hashing, so devices without overrides pay nothing extra.
+ *
+ * Device ids are runtime ids (KeyEvent.getDeviceId()); the owner rebuilds the map from
+ * persistent device descriptors whenever input devices are added or removed.
+ */
+public final class DeviceKeyMap {
+
+    /** actionFor() result when the device has no override for the key. */
+    public static final int NO_OVERRIDE = -1;
+
+    public static final DeviceKeyMap EMPTY = new Builder().build();
+
+    private final long[] keys;
+    // action + 1; 0 marks an empty slot
+    private final byte[] values;
+    private final int mask;
+    private final int size;
+
+    private DeviceKeyMap(long[] keys, byte[] values, int size) {
+        this.keys = keys;
+        this.values = values;
+        this.mask = keys.length - 1;
+        this.size = size;
+    }
+
+    /**
+     * Hot-path lookup.
+     *
+     * @return KeyActionTable action for the key on this device, or NO_OVERRIDE
+     */
+    public int actionFor(int deviceId, int keyCode) {
+        if (size == 0) {
+            return NO_OVERRIDE;
+        }
+        long key = pack(deviceId, keyCode);
+        for (int i = hash(key) & mask; ; i = (i + 1) & mask) {
+            byte value = values[i];
+            if (value == 0) {
+                return NO_OVERRIDE;
+            }
+            if (keys[i] == key) {
+                return value - 1;
+            }
+        }
+    }
+
+    public int size() {
+        return size;
+    }
+
+    private static long pack(int deviceId, int keyCode) {
+        return ((long) deviceId << 32) | (keyCode & 0xFFFFFFFFL);
+    }
+
+    private static int hash(long key) {
+        // MurmurHash3 finalizer
+        key ^= key >>> 33;
+        key *= 0xff51afd7ed558ccdL;
+        key ^= key >>> 33;
+        key *= 0xc4ceb34fe1a85ec3L;
+        key ^= key >>> 33;
+        return (int) key;
+    }
+
+    /**
+     * Collects overrides; not thread-safe. A later put() for the same key wins.
+     */
+    public static final class Builder {
+
+        private long[] keys = new long[8];
+        private byte[] actions = new byte[8];
+        private int count;
+
+        /**
+         * @param action KeyActionTable action, ACTION_NONE included (passes the key through)
+         */
+        public Builder put(int deviceId, int keyCode, int action) {
+            if (action < 0 || action >= KeyActionTable.ACTION_COUNT) {
+                return this;
+            }
+            long key = pack(deviceId, keyCode);
+            for (int i = 0; i < count; i++) {
+                if (keys[i] == key) {
+                    actions[i] = (byte) action;
+                    return this;
+                }
+            }
+            if (count == keys.length) {
+                long[] grownKeys = new long[count * 2];
+                byte[] grownActions = new byte[count * 2];
+                System.arraycopy(keys, 0, grownKeys, 0, count);
+                System.arraycopy(actions, 0, grownActions, 0, count);
+                keys = grownKeys;
+                actions = grownActions;
+            }
+            keys[count] = key;
+            actions[count] = (byte) action;
+            count++;
+            return this;
+        }
+
+        public DeviceKeyMap build() {
+            // At least twice the entries, so probing always reaches an empty slot
+            int capacity = Integer.highestOneBit(Math.max(1, count) * 2 - 1) << 1;
+            long[] tableKeys = new long[capacity];
+            byte[] tableValues = new byte[capacity];
+            int tableMask = capacity - 1;
+            for (int n = 0; n < count; n++) {
+                int i = hash(keys[n]) & tableMask;
+                while (tableValues[i] != 0) {
+                    i = (i + 1) & tableMask;
+                }
+                tableKeys[i] = keys[n];
+                tableValues[i] = (byte) (actions[n] + 1);
+            }
+            return new DeviceKeyMap(tableKeys, tableValues, count);
+        }
+    }
+}
@@ -0,0 +1,19 @@
+package ru.chepil.hytalkptt.core;
+
+/**
+ * Screen and keyguard state of the device, as far as the dispatch policy needs it.
+ * Asked on every press before PTT_DOWN, so implementations must answer from tracked
+ * state, without system calls.
+ */
+public interface DeviceState {
+
+    /**
+     * @return true if the screen is on (the device is interactive)
+     */
+    boolean isScreenOn();
+
+    /**
+     * @return true if the keyguard is showing
+     */
+    boolean isLocked();
+}
@@ -0,0 +1,88 @@
+package ru.chepil.hytalkptt.core;
+
+/**
+ * Decides per press whether the target is launched, and keeps the key-to-dispatch
+ * latency of each policy.
+ *
+ * A launch over the keyguard or with the screen off is slow and mostly not even shown,
+ * while a running target takes PTT_DOWN in the background. So a locked or dark device
+ * only broadcasts if the target is known to be running; otherwise, and whenever the
+ * device is in use, the target is launched first (unless it is already on top).
+ * Activities started by Programmable Keys do not send PTT themselves, so for them
+ * "broadcast only" means leaving the press to the accessibility service's PTT_DOWN.
+ *
+ * The static choice is thread-safe. Latency recording is not: each instance must have
+ * a single writer.
+ */
+public final class DispatchPolicy {
+
+    /** No launch: the target is on top, or running behind the keyguard. */
+    public static final int POLICY_BROADCAST_ONLY = 0;
+    /** Launch (or bring to front), then PTT_DOWN. */
+    public static final int POLICY_LAUNCH_THEN_BROADCAST = 1;
+    /** Launch only; PTT_DOWN comes from another path. */
+    public static final int POLICY_LAUNCH_ONLY = 2;
+    public static final int POLICY_COUNT = 3;
+
+    private static final String[] POLICY_NAMES = {
+            "broadcast_only", "launch_then_broadcast", "launch_only"
+    };
+
+    private final LatencyHistogram[] histograms = new LatencyHistogram[POLICY_COUNT];
+
+    public DispatchPolicy() {
+        for (int i = 0; i < POLICY_COUNT; i++) {
+            histograms[i] = new LatencyHistogram();
+        }
+    }
+
+    /**
+     * @param screenOn         the screen is on
+     * @param locked           the keyguard is showing
+     * @param targetForeground the target is already on top
+     * @param targetRunning    the target is known to be running (can take PTT_DOWN in the background)
+     * @param sendsSignal      the caller sends PTT_DOWN itself
+     * @return one of the POLICY_ constants
+     */
+    public static int choose(boolean screenOn, boolean locked, boolean targetForeground,
+                             boolean targetRunning, boolean sendsSignal) {
+        boolean launch = !targetForeground && (screenOn && !locked || !targetRunning);
+        if (!launch) {
+            return POLICY_BROADCAST_ONLY;
+        }
+        return sendsSignal ? POLICY_LAUNCH_THEN_BROADCAST : POLICY_LAUNCH_ONLY;
+    }
+
+    public static boolean launches(int policy) {
+        return policy != POLICY_BROADCAST_ONLY;
+    }
+
+    public static String name(int policy) {
+        return POLICY_NAMES[policy];
+    }
+
+    /**
+     * @param millis time from the key event (or activity start) until the press was dispatched
+     */
+    public void record(int policy, long millis) {
+        histograms[policy].record(millis);
+    }
+
+    public long count(int policy) {
+        return histograms[policy].count();
+    }
+
+    /**
+     * Appends one line per policy used: "name: n=.. p50=..ms p95=..ms p99=..ms max=..ms".
+     */
+    public void appendReport(StringBuilder sb) {
+        for (int i = 0; i < POLICY_COUNT; i++) {
+            if (histograms[i].count() == 0) {
+                continue;
+            }
+            sb.append(POLICY_NAMES[i]).append(": ");
+            histograms[i].appendSummary(sb);
+            sb.append('\n');
+        }
+    }
+}
@@ -0,0 +1,41 @@
+package ru.chepil.hytalkptt.core;
+
+/**
+ * Counts events and the number seen in the last completed one-minute window.
+ * record() must be called from a single thread; the getters may be read anywhere.
+ */
+public final class EventRateCounter {
+
+    private static final long WINDOW_MS = 60000;
+
+    private long windowStart = -1;
+    private long inWindow;
+
+    private volatile long total;
+    private volatile long lastWindow;
+
+    /**
+     * @param now uptime millis of the event
+     */
+    public void record(long now) {
+        if (windowStart < 0) {
+            windowStart = now;
+        } else if (now - windowStart >= WINDOW_MS) {
+            // A gap longer than a whole window means that window was empty
+            lastWindow = now - windowStart < 2 * WINDOW_MS ? inWindow : 0;
+            windowStart = now;
+            inWindow = 0;
+        }
+        inWindow++;
+        total++;
+    }
+
+    public long total() {
+        return total;
+    }
+
+    /** Events in the last completed minute. */
+    public long perMinute() {
+        return lastWindow;
+    }
+}
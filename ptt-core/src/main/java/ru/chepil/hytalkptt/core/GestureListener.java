@@ -0,0 +1,15 @@
+package ru.chepil.hytalkptt.core;
+
+/**
+ * Receives PTT key gestures confirmed by PressHandler.
+ * Called on the thread that drives PressHandler, after the PTT signals of the press.
+ */
+public interface GestureListener {
+
+    /** Second short press right after the previous release. No PTT signal was sent for it. */
+    int GESTURE_DOUBLE_PRESS = 1;
+    /** Press held past the long-press time. The PTT transmission continues. */
+    int GESTURE_LONG_PRESS = 2;
+
+    void onGesture(int gesture, int keyCode);
+}
@@ -0,0 +1,179 @@
+package ru.chepil.hytalkptt.core;
+
+/**
+ * Immutable keycode-to-action table: a dense byte array indexed by keycode, so
+ * the input callback resolves any key with one bounds check and one array load,
+ * without boxing. Keycodes at or above MAX_KEYCODE cannot be mapped; vendor keys
+ * on the supported devices (DT30 520-522, Ulefone 381) fit well below it.
+ *
+ * Persisted as text: comma-separated "keycode:action" pairs, e.g.
+ * "228:ptt,521:emergency,522:channel_up".
+ *
+ * A per-device table can also hold explicit "none" entries (withOverride()): the key is
+ * listed as mapped, so the device override passes it through instead of falling back to
+ * the global table, while actionFor() still answers ACTION_NONE.
+ */
+public final class KeyActionTable {
+
+    public static final int ACTION_NONE = 0;
+    public static final int ACTION_PTT = 1;
+    public static final int ACTION_EMERGENCY = 2;
+    public static final int ACTION_CHANNEL_UP = 3;
+    public static final int ACTION_CHANNEL_DOWN = 4;
+    public static final int ACTION_COUNT = 5;
+
+    private static final String[] ACTION_NAMES = {
+            "none", "ptt", "emergency", "channel_up", "channel_down"
+    };
+
+    // Stored for an explicit ACTION_NONE entry; masked off by actionFor()
+    private static final byte EXPLICIT_NONE = 0x40;
+    private static final int ACTION_MASK = 0x3F;
+
+    /** Exclusive upper bound of mappable keycodes. */
+    public static final int MAX_KEYCODE = 1024;
+
+    public static final KeyActionTable EMPTY = new KeyActionTable(new byte[MAX_KEYCODE]);
+
+    private final byte[] actions;
+
+    private KeyActionTable(byte[] actions) {
+        this.actions = actions;
+    }
+
+    /**
+     * Table with keyCode as the only (PTT) key - the single-keycode setting.
+     */
+    public static KeyActionTable ofPtt(int keyCode) {
+        return EMPTY.with(keyCode, ACTION_PTT);
+    }
+
+    /**
+     * Parses the text form. Malformed entries, unknown actions and keycodes out of range
+     * are skipped, so a damaged setting never disables the remaining keys.
+     */
+    public static KeyActionTable parse(String text) {
+        byte[] actions = new byte[MAX_KEYCODE];
+        if (text != null) {
+            for (String entry : text.split(",")) {
+                int colon = entry.indexOf(':');
+                if (colon <= 0) {
+                    continue;
+                }
+                int keyCode;
+                try {
+                    keyCode = Integer.parseInt(entry.substring(0, colon).trim());
+                } catch (NumberFormatException e) {
+                    continue;
+                }
+                String name = entry.substring(colon + 1).trim();
+                int action = actionForName(name);
+                if (keyCode < 0 || keyCode >= MAX_KEYCODE) {
+                    continue;
+                }
+                if (action != ACTION_NONE) {
+                    actions[keyCode] = (byte) action;
+                } else if (ACTION_NAMES[ACTION_NONE].equals(name)) {
+                    actions[keyCode] = EXPLICIT_NONE;
+                }
+            }
+        }
+        return new KeyActionTable(actions);
+    }
+
+    /**
+     * Hot-path lookup.
+     *
+     * @return one of the ACTION_ constants; ACTION_NONE for unmapped keys
+     */
+    public int actionFor(int keyCode) {
+        return keyCode >= 0 && keyCode < MAX_KEYCODE ? actions[keyCode] & ACTION_MASK : ACTION_NONE;
+    }
+
+    /**
+     * @return a copy with keyCode mapped to action (ACTION_NONE removes it);
+     *         this table if keyCode is out of range
+     */
+    public KeyActionTable with(int keyCode, int action) {
+        if (keyCode < 0 || keyCode >= MAX_KEYCODE || action < 0 || action >= ACTION_COUNT) {
+            return this;
+        }
+        byte[] copy = actions.clone();
+        copy[keyCode] = (byte) action;
+        return new KeyActionTable(copy);
+    }
+
+    /**
+     * Like with(), but ACTION_NONE is kept as an explicit entry, for per-device tables
+     * where "none" must override the global mapping.
+     */
+    public KeyActionTable withOverride(int keyCode, int action) {
+        if (action != ACTION_NONE || keyCode < 0 || keyCode >= MAX_KEYCODE) {
+            return with(keyCode, action);
+        }
+        byte[] copy = actions.clone();
+        copy[keyCode] = EXPLICIT_NONE;
+        return new KeyActionTable(copy);
+    }
+
+    /**
+     * @return the lowest keycode mapped to action, or -1
+     */
+    public int firstKeyFor(int action) {
+        for (int keyCode = 0; keyCode < MAX_KEYCODE; keyCode++) {
+            if (actions[keyCode] == action) {
+                return keyCode;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Iterates the mapped keys, explicit "none" entries included: start with 0, continue
+     * with the previous result + 1.
+     *
+     * @return the lowest mapped keycode at or above fromKeyCode, or -1
+     */
+    public int nextMappedKey(int fromKeyCode) {
+        for (int keyCode = Math.max(0, fromKeyCode); keyCode < MAX_KEYCODE; keyCode++) {
+            if (actions[keyCode] != ACTION_NONE) {
+                return keyCode;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * @return the text form, keycodes ascending
+     */
+    public String encode() {
+        StringBuilder sb = new StringBuilder();
+        for (int keyCode = 0; keyCode < MAX_KEYCODE; keyCode++) {
+            if (actions[keyCode] != ACTION_NONE) {
+                if (sb.length() > 0) {
+                    sb.append(',');
+                }
+                sb.append(keyCode).append(':').append(ACTION_NAMES[actions[keyCode] & ACTION_MASK]);
+            }
+        }
+        return sb.toString();
+    }
+
+    public static String actionName(int action) {
+        return action >= 0 && action < ACTION_COUNT ? ACTION_NAMES[action] : "unknown";
+    }
+
+    private static int actionForName(String name) {
+        for (int i = 1; i < ACTION_COUNT; i++) {
+            if (ACTION_NAMES[i].equals(name)) {
+                return i;
+            }
+        }
+        return ACTION_NONE;
+    }
+
+    @Override
+    public String toString() {
+        return encode();
+    }
+}
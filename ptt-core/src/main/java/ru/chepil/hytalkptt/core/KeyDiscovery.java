@@ -0,0 +1,254 @@
+package ru.chepil.hytalkptt.core;
+
+/**
+ * Bounded table of keys seen while provisioning a new device model, one entry per
+ * (keycode, scancode, device). Per key it keeps the press count, the autorepeat
+ * interval, the last DOWN-to-UP hold time and the delivery delay (how long the input
+ * stack took to hand the event over). When full, the least recently pressed key is
+ * replaced. record() is primitives only and never allocates; text and snapshots are
+ * only built when the setup screen asks.
+ *
+ * Synchronized: keys are recorded on the input thread and read by the setup screen.
+ */
+public final class KeyDiscovery {
+
+    public static final int DEFAULT_CAPACITY = 16;
+
+    public static final int ACTION_DOWN = 0;
+    public static final int ACTION_UP = 1;
+
+    /** One discovered key, as of the snapshot. */
+    public static final class Candidate {
+        private final int keyCode;
+        private final int scanCode;
+        private final int deviceId;
+        private final long presses;
+        private final long repeatIntervalMs;
+        private final long holdMs;
+        private final long averageDelayMs;
+        private final long maxDelayMs;
+
+        Candidate(int keyCode, int scanCode, int deviceId, long presses, long repeatIntervalMs,
+                  long holdMs, long averageDelayMs, long maxDelayMs) {
+            this.keyCode = keyCode;
+            this.scanCode = scanCode;
+            this.deviceId = deviceId;
+            this.presses = presses;
+            this.repeatIntervalMs = repeatIntervalMs;
+            this.holdMs = holdMs;
+            this.averageDelayMs = averageDelayMs;
+            this.maxDelayMs = maxDelayMs;
+        }
+
+        public int getKeyCode() {
+            return keyCode;
+        }
+
+        public int getScanCode() {
+            return scanCode;
+        }
+
+        public int getDeviceId() {
+            return deviceId;
+        }
+
+        public long getPresses() {
+            return presses;
+        }
+
+        /** Average time between autorepeat DOWNs; -1 if the key never repeated. */
+        public long getRepeatIntervalMs() {
+            return repeatIntervalMs;
+        }
+
+        /** DOWN-to-UP time of the last completed press; -1 if none completed. */
+        public long getHoldMs() {
+            return holdMs;
+        }
+
+        /** Average time from the key event to its delivery to the app. */
+        public long getAverageDelayMs() {
+            return averageDelayMs;
+        }
+
+        public long getMaxDelayMs() {
+            return maxDelayMs;
+        }
+    }
+
+    private final int[] keyCodes;
+    private final int[] scanCodes;
+    private final int[] deviceIds;
+    private final long[] presses;
+    private final long[] downTimes;
+    private final long[] lastDownTimes;
+    private final long[] repeatIntervalTotals;
+    private final long[] repeatIntervals;
+    private final long[] holds;
+    private final long[] delayTotals;
+    private final long[] events;
+    private final long[] maxDelays;
+    // Order of the last DOWN, for eviction and for "most recent"
+    private final long[] lastPressed;
+    private int size;
+    private long sequence;
+    private long recorded;
+    private int mostRecent = -1;
+
+    public KeyDiscovery(int capacity) {
+        int n = Math.max(1, capacity);
+        keyCodes = new int[n];
+        scanCodes = new int[n];
+        deviceIds = new int[n];
+        presses = new long[n];
+        downTimes = new long[n];
+        lastDownTimes = new long[n];
+        repeatIntervalTotals = new long[n];
+        repeatIntervals = new long[n];
+        holds = new long[n];
+        delayTotals = new long[n];
+        events = new long[n];
+        maxDelays = new long[n];
+        lastPressed = new long[n];
+    }
+
+    /**
+     * @param action       ACTION_DOWN or ACTION_UP (as KeyEvent)
+     * @param eventTime    hardware key event time
+     * @param receivedTime time the event was delivered to the app
+     */
+    public synchronized void record(int keyCode, int scanCode, int deviceId, int action, int repeatCount,
+                                    long eventTime, long receivedTime) {
+        int i = indexOf(keyCode, scanCode, deviceId);
+        if (i < 0) {
+            if (action != ACTION_DOWN) {
+                return; // Released before we started listening
+            }
+            i = allocate(keyCode, scanCode, deviceId);
+        }
+        recorded++;
+        long delay = Math.max(0, receivedTime - eventTime);
+        delayTotals[i] += delay;
+        events[i]++;
+        if (delay > maxDelays[i]) {
+            maxDelays[i] = delay;
+        }
+        if (action == ACTION_DOWN) {
+            if (repeatCount == 0) {
+                presses[i]++;
+                downTimes[i] = eventTime;
+                lastPressed[i] = ++sequence;
+                mostRecent = i;
+            } else if (lastDownTimes[i] != 0) {
+                repeatIntervalTotals[i] += eventTime - lastDownTimes[i];
+                repeatIntervals[i]++;
+            }
+            lastDownTimes[i] = eventTime;
+        } else if (action == ACTION_UP && downTimes[i] != 0) {
+            holds[i] = eventTime - downTimes[i];
+        }
+    }
+
+    /** Bumped by every recorded event; lets a screen redraw only on change. */
+    public synchronized long version() {
+        return recorded;
+    }
+
+    /**
+     * @return the key pressed last, or null if none yet
+     */
+    public synchronized Candidate mostRecent() {
+        return mostRecent >= 0 ? candidate(mostRecent) : null;
+    }
+
+    /**
+     * @return the discovered keys, most recently pressed first
+     */
+    public synchronized Candidate[] snapshot() {
+        Candidate[] result = new Candidate[size];
+        boolean[] taken = new boolean[size];
+        for (int n = 0; n < size; n++) {
+            int best = -1;
+            for (int i = 0; i < size; i++) {
+                if (!taken[i] && (best < 0 || lastPressed[i] > lastPressed[best])) {
+                    best = i;
+                }
+            }
+            taken[best] = true;
+            result[n] = candidate(best);
+        }
+        return result;
+    }
+
+    public synchronized void reset() {
+        size = 0;
+        mostRecent = -1;
+    }
+
+    /**
+     * Appends one line per key, most recently pressed first.
+     */
+    public void appendTo(StringBuilder sb) {
+        for (Candidate c : snapshot()) {
+            sb.append("keyCode=").append(c.keyCode)
+                    .append(" scan=").append(c.scanCode)
+                    .append(" dev=").append(c.deviceId)
+                    .append(" presses=").append(c.presses);
+            if (c.repeatIntervalMs >= 0) {
+                sb.append(" repeat=").append(c.repeatIntervalMs).append("ms");
+            }
+            if (c.holdMs >= 0) {
+                sb.append(" hold=").append(c.holdMs).append("ms");
+            }
+            sb.append(" delay=").append(c.averageDelayMs).append('/').append(c.maxDelayMs).append("ms\n");
+        }
+    }
+
+    private int indexOf(int keyCode, int scanCode, int deviceId) {
+        for (int i = 0; i < size; i++) {
+            if (keyCodes[i] == keyCode && scanCodes[i] == scanCode && deviceIds[i] == deviceId) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private int allocate(int keyCode, int scanCode, int deviceId) {
+        int i;
+        if (size < keyCodes.length) {
+            i = size++;
+        } else {
+            i = 0;
+            for (int j = 1; j < size; j++) {
+                if (lastPressed[j] < lastPressed[i]) {
+                    i = j;
+                }
+            }
+            if (i == mostRecent) {
+                mostRecent = -1;
+            }
+        }
+        keyCodes[i] = keyCode;
+        scanCodes[i] = scanCode;
+        deviceIds[i] = deviceId;
+        presses[i] = 0;
+        downTimes[i] = 0;
+        lastDownTimes[i] = 0;
+        repeatIntervalTotals[i] = 0;
+        repeatIntervals[i] = 0;
+        holds[i] = -1;
+        delayTotals[i] = 0;
+        events[i] = 0;
+        maxDelays[i] = 0;
+        lastPressed[i] = 0;
+        return i;
+    }
+
+    private Candidate candidate(int i) {
+        return new Candidate(keyCodes[i], scanCodes[i], deviceIds[i], presses[i],
+                repeatIntervals[i] > 0 ? repeatIntervalTotals[i] / repeatIntervals[i] : -1,
+                holds[i],
+                events[i] > 0 ? delayTotals[i] / events[i] : 0,
+                maxDelays[i]);
+    }
+}
@@ -0,0 +1,132 @@
+package ru.chepil.hytalkptt.core;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * Captured key events as they reached the accessibility key filter, in arrival order,
+ * for replaying field incidents off-device (chatter, fast tap runs, accessory presses
+ * interleaved with the built-in key).
+ *
+ * Binary format (big-endian, as written by DataOutputStream):
+ * <pre>
+ *   int   magic 'PTKT'
+ *   short version (1)
+ *   int   event count
+ *   per event, 21 bytes:
+ *     long  event time (KeyEvent.getEventTime(), uptime millis)
+ *     int   received - event time (ms the event took to reach the filter)
+ *     int   device id
+ *     short keycode
+ *     short repeat count (capped at 32767)
+ *     byte  action (ACTION_DOWN / ACTION_UP, as KeyEvent)
+ * </pre>
+ */
+public final class KeyTrace {
+
+    public static final int ACTION_DOWN = 0;
+    public static final int ACTION_UP = 1;
+
+    private static final int MAGIC = 0x50544B54;
+    private static final int VERSION = 1;
+
+    private final int size;
+    private final long[] eventTimes;
+    private final int[] receivedDelays;
+    private final int[] deviceIds;
+    private final short[] keyCodes;
+    private final short[] repeatCounts;
+    private final byte[] actions;
+
+    KeyTrace(int size, long[] eventTimes, int[] receivedDelays, int[] deviceIds,
+             short[] keyCodes, short[] repeatCounts, byte[] actions) {
+        this.size = size;
+        this.eventTimes = eventTimes;
+        this.receivedDelays = receivedDelays;
+        this.deviceIds = deviceIds;
+        this.keyCodes = keyCodes;
+        this.repeatCounts = repeatCounts;
+        this.actions = actions;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public long eventTime(int i) {
+        return eventTimes[i];
+    }
+
+    /** Uptime millis at which the filter saw event i. */
+    public long receivedTime(int i) {
+        return eventTimes[i] + receivedDelays[i];
+    }
+
+    public int deviceId(int i) {
+        return deviceIds[i];
+    }
+
+    public int keyCode(int i) {
+        return keyCodes[i];
+    }
+
+    public int repeatCount(int i) {
+        return repeatCounts[i];
+    }
+
+    public int action(int i) {
+        return actions[i];
+    }
+
+    public void write(OutputStream out) throws IOException {
+        DataOutputStream data = new DataOutputStream(out);
+        data.writeInt(MAGIC);
+        data.writeShort(VERSION);
+        data.writeInt(size);
+        for (int i = 0; i < size; i++) {
+            data.writeLong(eventTimes[i]);
+            data.writeInt(receivedDelays[i]);
+            data.writeInt(deviceIds[i]);
+            data.writeShort(keyCodes[i]);
+            data.writeShort(repeatCounts[i]);
+            data.writeByte(actions[i]);
+        }
+        data.flush();
+    }
+
+    /**
+     * @throws IOException if the stream is not a key trace or ends early
+     */
+    public static KeyTrace read(InputStream in) throws IOException {
+        DataInputStream data = new DataInputStream(in);
+        if (data.readInt() != MAGIC) {
+            throw new IOException("Not a key trace");
+        }
+        int version = data.readShort();
+        if (version != VERSION) {
+            throw new IOException("Unsupported key trace version " + version);
+        }
+        int size = data.readInt();
+        if (size < 0) {
+            throw new IOException("Bad event count " + size);
+        }
+        long[] eventTimes = new long[size];
+        int[] receivedDelays = new int[size];
+        int[] deviceIds = new int[size];
+        short[] keyCodes = new short[size];
+        short[] repeatCounts = new short[size];
+        byte[] actions = new byte[size];
+        for (int i = 0; i < size; i++) {
+            eventTimes[i] = data.readLong();
+            receivedDelays[i] = data.readInt();
+            deviceIds[i] = data.readInt();
+            keyCodes[i] = data.readShort();
+            repeatCounts[i] = data.readShort();
+            actions[i] = data.readByte();
+        }
+        return new KeyTrace(size, eventTimes, receivedDelays, deviceIds, keyCodes, repeatCounts, actions);
+    }
+}
@@ -0,0 +1,89 @@
+package ru.chepil.hytalkptt.core;
+
+/**
+ * Captures key events into a preallocated ring for a KeyTrace; the oldest events are
+ * overwritten when full. record() is primitives only and never allocates.
+ *
+ * Synchronized, since capture runs on the input thread and snapshots are taken from
+ * dumps. It is a diagnostic mode: the uncontended lock is only paid while capturing.
+ */
+public final class KeyTraceRecorder {
+
+    private final int mask;
+    private final long[] eventTimes;
+    private final int[] receivedDelays;
+    private final int[] deviceIds;
+    private final short[] keyCodes;
+    private final short[] repeatCounts;
+    private final byte[] actions;
+
+    private long written;
+
+    /**
+     * @param capacity number of events kept; rounded up to a power of two
+     */
+    public KeyTraceRecorder(int capacity) {
+        int size = Integer.highestOneBit(Math.max(1, capacity - 1)) << 1;
+        mask = size - 1;
+        eventTimes = new long[size];
+        receivedDelays = new int[size];
+        deviceIds = new int[size];
+        keyCodes = new short[size];
+        repeatCounts = new short[size];
+        actions = new byte[size];
+    }
+
+    /**
+     * @param action       KeyTrace.ACTION_DOWN or ACTION_UP
+     * @param eventTime    hardware key event time
+     * @param receivedTime time the filter saw the event
+     */
+    public synchronized void record(int keyCode, int action, int repeatCount, int deviceId,
+                                    long eventTime, long receivedTime) {
+        int i = (int) written & mask;
+        eventTimes[i] = eventTime;
+        receivedDelays[i] = (int) Math.max(Integer.MIN_VALUE, Math.min(Integer.MAX_VALUE, receivedTime - eventTime));
+        deviceIds[i] = deviceId;
+        keyCodes[i] = (short) keyCode;
+        repeatCounts[i] = (short) Math.min(repeatCount, Short.MAX_VALUE);
+        actions[i] = (byte) action;
+        written++;
+    }
+
+    public int capacity() {
+        return mask + 1;
+    }
+
+    /** Events recorded in total, including the ones already overwritten. */
+    public synchronized long written() {
+        return written;
+    }
+
+    public synchronized void reset() {
+        written = 0;
+    }
+
+    /**
+     * @return the kept events, oldest first
+     */
+    public synchronized KeyTrace snapshot() {
+        long first = Math.max(0, written - capacity());
+        int size = (int) (written - first);
+        long[] times = new long[size];
+        int[] delays = new int[size];
+        int[] devices = new int[size];
+        short[] keys = new short[size];
+        short[] repeats = new short[size];
+        byte[] acts = new byte[size];
+        for (int n = 0; n < size; n++) {
+            int i = (int) (first + n) & mask;
+            times[n] = eventTimes[i];
+            delays[n] = receivedDelays[i];
+            devices[n] = deviceIds[i];
+            keys[n] = keyCodes[i];
+            repeats[n] = repeatCounts[i];
+            acts[n] = actions[i];
+        }
+        return new KeyTrace(size, times, delays, devices, keys, repeats, acts);
+    }
+}
@@ -0,0 +1,112 @@
+package ru.chepil.hytalkptt.core;
+
+/**
+ * Fixed-size latency histogram in milliseconds.
+ * All buckets are allocated up front, so record() never allocates and can run
+ * on every PTT press. Not synchronized: each instance must have a single writer.
+ *
+ * Bucket layout: 1 ms steps up to 100 ms, 10 ms steps up to 1 s,
+ * 100 ms steps up to 10 s, and one overflow bucket.
+ */
+public final class LatencyHistogram {
+
+    private static final int FINE_LIMIT = 100;     // 1 ms buckets below this
+    private static final int MEDIUM_LIMIT = 1000;  // 10 ms buckets below this
+    private static final int COARSE_LIMIT = 10000; // 100 ms buckets below this
+
+    private static final int FINE_BUCKETS = FINE_LIMIT;
+    private static final int MEDIUM_BUCKETS = (MEDIUM_LIMIT - FINE_LIMIT) / 10;
+    private static final int COARSE_BUCKETS = (COARSE_LIMIT - MEDIUM_LIMIT) / 100;
+    private static final int BUCKET_COUNT = FINE_BUCKETS + MEDIUM_BUCKETS + COARSE_BUCKETS + 1;
+
+    private final long[] counts = new long[BUCKET_COUNT];
+    private long total;
+    private long max;
+
+    public void record(long millis) {
+        if (millis < 0) {
+            millis = 0;
+        }
+        counts[bucketFor(millis)]++;
+        total++;
+        if (millis > max) {
+            max = millis;
+        }
+    }
+
+    public long count() {
+        return total;
+    }
+
+    public long max() {
+        return max;
+    }
+
+    /**
+     * @param percentile 0..100
+     * @return upper bound of the bucket holding the given percentile, in ms; 0 if empty
+     */
+    public long percentile(double percentile) {
+        long n = total;
+        if (n == 0) {
+            return 0;
+        }
+        long rank = (long) Math.ceil(n * percentile / 100.0);
+        if (rank < 1) {
+            rank = 1;
+        }
+        long seen = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            seen += counts[i];
+            if (seen >= rank) {
+                return Math.min(upperBound(i), max);
+            }
+        }
+        return max;
+    }
+
+    public void reset() {
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            counts[i] = 0;
+        }
+        total = 0;
+        max = 0;
+    }
+
+    /**
+     * Appends "n=.. p50=..ms p95=..ms p99=..ms max=..ms".
+     */
+    public void appendSummary(StringBuilder sb) {
+        sb.append("n=").append(total)
+                .append(" p50=").append(percentile(50)).append("ms")
+                .append(" p95=").append(percentile(95)).append("ms")
+                .append(" p99=").append(percentile(99)).append("ms")
+                .append(" max=").append(max).append("ms");
+    }
+
+    private static int bucketFor(long millis) {
+        if (millis < FINE_LIMIT) {
+            return (int) millis;
+        }
+        if (millis < MEDIUM_LIMIT) {
+            return FINE_BUCKETS + (int) ((millis - FINE_LIMIT) / 10);
+        }
+        if (millis < COARSE_LIMIT) {
+            return FINE_BUCKETS + MEDIUM_BUCKETS + (int) ((millis - MEDIUM_LIMIT) / 100);
+        }
+        return BUCKET_COUNT - 1;
+    }
+
+    private static long upperBound(int bucket) {
+        if (bucket < FINE_BUCKETS) {
+            return bucket;
+        }
+        if (bucket < FINE_BUCKETS + MEDIUM_BUCKETS) {
+            return FINE_LIMIT + (bucket - FINE_BUCKETS + 1) * 10L - 1;
+        }
+        if (bucket < BUCKET_COUNT - 1) {
+            return MEDIUM_LIMIT + (bucket - FINE_BUCKETS - MEDIUM_BUCKETS + 1) * 100L - 1;
+        }
+        return Long.MAX_VALUE;
+    }
+}
@@ -0,0 +1,25 @@
+package ru.chepil.hytalkptt.core;
+
+/**
+ * The app that receives PTT (HyTalk).
+ */
+public interface LaunchTarget {
+
+    /**
+     * @return true if the target is installed and can be launched
+     */
+    boolean isAvailable();
+
+    /**
+     * @return true if the target's process is known to be running; false if it is
+     *         not, or if this cannot be determined
+     */
+    boolean isRunning();
+
+    /**
+     * Launches the target or brings it to the foreground.
+     *
+     * @return true if the launch was issued
+     */
+    boolean launch();
+}
@@ -0,0 +1,178 @@
+package ru.chepil.hytalkptt.core;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Shared press state for the paths that see the same physical PTT press: the
+ * accessibility key filter and the activities started by Programmable Keys.
+ * Each press gets a generation number; exactly one path may launch the target per
+ * generation (claimLaunch), and DOWN/UP transitions carrying an older generation
+ * are discarded, so a late activity callback cannot end or relaunch a newer press.
+ *
+ * Lock-free: generation, pressed, launched and key-held flags live in one AtomicLong
+ * and every transition is a compare-and-set, so any thread may call any method.
+ */
+public final class PressCoordinator {
+
+    /** Generation numbers start at 1; NO_GENERATION never matches a press. */
+    public static final long NO_GENERATION = 0;
+
+    /**
+     * An activity entry this soon after the key was released belongs to that press
+     * (Programmable Keys starts the activity after the accessibility filter saw the key).
+     */
+    public static final long JOIN_WINDOW_MS = 1000;
+
+    private static final long PRESSED = 1;
+    private static final long LAUNCHED = 2;
+    // The accessibility filter holds the key; only its UP ends the press
+    private static final long KEY = 4;
+    private static final int GENERATION_SHIFT = 3;
+
+    private final AtomicLong state = new AtomicLong();
+    private final AtomicLong duplicateLaunches = new AtomicLong();
+    private final AtomicLong staleTransitions = new AtomicLong();
+
+    // Press last ended by a key UP, and when
+    private volatile long lastKeyUpGeneration = NO_GENERATION;
+    private volatile long lastKeyUpTime;
+
+    /**
+     * Key DOWN seen by the accessibility filter (first DOWN of a press, not autorepeat).
+     * Adopts a press an activity started moments before; otherwise starts a new generation.
+     *
+     * @return the press generation
+     */
+    public long keyDown() {
+        for (;;) {
+            long s = state.get();
+            long next;
+            if ((s & (PRESSED | KEY)) == PRESSED) {
+                next = s | KEY;
+            } else {
+                next = ((generation(s) + 1) << GENERATION_SHIFT) | PRESSED | KEY;
+            }
+            if (state.compareAndSet(s, next)) {
+                return generation(next);
+            }
+        }
+    }
+
+    /**
+     * Key UP seen by the accessibility filter.
+     *
+     * @param now uptime millis
+     * @return false if the UP belongs to an older press and was discarded
+     */
+    public boolean keyUp(long generation, long now) {
+        if (generation == NO_GENERATION) {
+            return false;
+        }
+        for (;;) {
+            long s = state.get();
+            if (generation(s) != generation || (s & PRESSED) == 0) {
+                staleTransitions.incrementAndGet();
+                return false;
+            }
+            if (state.compareAndSet(s, s & ~(PRESSED | KEY))) {
+                lastKeyUpTime = now;
+                lastKeyUpGeneration = generation;
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Activity entry for a press (Programmable Keys). Joins the press in progress, or the one
+     * released within JOIN_WINDOW_MS; otherwise starts a new generation that lasts until leave().
+     *
+     * @param now uptime millis
+     * @return the press generation
+     */
+    public long join(long now) {
+        for (;;) {
+            long s = state.get();
+            if ((s & PRESSED) != 0
+                    || (generation(s) == lastKeyUpGeneration && generation(s) != NO_GENERATION
+                    && now - lastKeyUpTime <= JOIN_WINDOW_MS)) {
+                return generation(s);
+            }
+            long next = ((generation(s) + 1) << GENERATION_SHIFT) | PRESSED;
+            if (state.compareAndSet(s, next)) {
+                return generation(next);
+            }
+        }
+    }
+
+    /**
+     * The activity is done with the press (finished, failed or destroyed). Ends the press only
+     * if the activity started it; a key still held keeps it going.
+     *
+     * @return false if nothing was ended
+     */
+    public boolean leave(long generation) {
+        if (generation == NO_GENERATION) {
+            return false;
+        }
+        for (;;) {
+            long s = state.get();
+            if (generation(s) != generation) {
+                staleTransitions.incrementAndGet();
+                return false;
+            }
+            if ((s & (PRESSED | KEY)) != PRESSED) {
+                return false;
+            }
+            if (state.compareAndSet(s, s & ~PRESSED)) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * @return true for exactly one caller per generation, which then launches the target;
+     *         false if the launch was already claimed or the generation is no longer current
+     */
+    public boolean claimLaunch(long generation) {
+        if (generation == NO_GENERATION) {
+            return false;
+        }
+        for (;;) {
+            long s = state.get();
+            if (generation(s) != generation) {
+                staleTransitions.incrementAndGet();
+                return false;
+            }
+            if ((s & LAUNCHED) != 0) {
+                duplicateLaunches.incrementAndGet();
+                return false;
+            }
+            if (state.compareAndSet(s, s | LAUNCHED)) {
+                return true;
+            }
+        }
+    }
+
+    public boolean isPressed() {
+        return (state.get() & PRESSED) != 0;
+    }
+
+    /** Current (latest) press generation, NO_GENERATION before the first press. */
+    public long generation() {
+        return generation(state.get());
+    }
+
+    /** Launches refused because another path had already launched for the press. */
+    public long getDuplicateLaunches() {
+        return duplicateLaunches.get();
+    }
+
+    /** Transitions discarded because they carried an older generation. */
+    public long getStaleTransitions() {
+        return staleTransitions.get();
+    }
+
+    private static long generation(long s) {
+        return s >>> GENERATION_SHIFT;
+    }
+}
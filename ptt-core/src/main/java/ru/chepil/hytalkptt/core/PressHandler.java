@@ -0,0 +1,855 @@
+package ru.chepil.hytalkptt.core;
+
+/**
+ * Press-handling core of PTTAccessibilityService, free of Android classes so it
+ * can be benchmarked and exercised on a plain JVM.
+ *
+ * actionFor() is called from the input callback for every key on the device and
+ * only reads a volatile reference plus one array element. All other methods must be called from one thread
+ * (the dispatch thread on Android), in the order the key events arrived.
+ *
+ * A press is a small state machine:
+ * <pre>
+ *   IDLE --DOWN--> PRESSED --UP--> RELEASED --debounce elapsed--> IDLE
+ *                     ^                |
+ *                     +-----DOWN-------+   (contact chatter, press continues)
+ * </pre>
+ * The first DOWN launches and sends PTT_DOWN immediately, unless the cold-start or
+ * double-press rules below hold it back.
+ * Autorepeat DOWNs are coalesced into the press, so HyTalk is launched once per
+ * press instead of on every repeat. A release only becomes PTT_UP after the
+ * debounce window passes without a new DOWN; with a window of 0 it is sent at once.
+ * The owner schedules a timer for nextDeadline() and calls onTimer() when it fires.
+ *
+ * The owner also reports foreground changes (onForegroundChanged); while the target
+ * is known to be on top, the launch is skipped and only the PTT signal is sent.
+ *
+ * Cold start: if the target has to be launched and is cold (its window has not been
+ * seen since this handler started, the target app changed, or the last launch brought
+ * no window; and the target does not report its process as running), PTT_DOWN would reach it before its receiver exists. The DOWN is then
+ * held in a single slot until the target's window appears or the cold-start hold
+ * passes, whichever is first. If the press is released before that, the DOWN is
+ * dropped and no PTT_UP is sent either.
+ *
+ * Gestures: a press that starts within the double-press window after the previous
+ * release is a double-press candidate, and its PTT_DOWN is held until that is decided.
+ * Released within the window, it is a double press: the gesture is reported and no
+ * PTT signal is sent for it. Still held when the window ends, it is a quick re-key and
+ * PTT_DOWN goes out then (or waits on for a cold-start hold). Other presses are never
+ * delayed. A long press is reported from the timer when the press has been held for
+ * the long-press time and leaves the transmission running. Both are off (window 0)
+ * until configured.
+ *
+ * Watchdog: a press held longer than the maximum press time (a lost ACTION_UP)
+ * gets a PTT_UP from the timer, as does a press still in progress when the owner
+ * shuts down (flush()). The key's remaining DOWNs and its UP are then absorbed
+ * (STATE_FORCED). Arming it is one field write per press; it only costs a timer
+ * while a press is in progress.
+ *
+ * With a PressCoordinator set, the launch is claimed for the generation the
+ * DOWN carries first, so a press that also reaches an activity through Programmable Keys
+ * starts the target only once.
+ *
+ * With a DeviceState set, each press picks a DispatchPolicy: on a locked or dark
+ * device the launch is skipped if the target is known to be running, since it
+ * takes PTT_DOWN in the background. Key-to-PTT_DOWN latency is kept per policy.
+ *
+ * Every key event, launch and signal is also written to an in-memory TraceBuffer
+ * (getTrace()) for post-incident dumps.
+ */
+public final class PressHandler {
+
+    public static final int STATE_IDLE = 0;
+    public static final int STATE_PRESSED = 1;
+    public static final int STATE_RELEASED = 2;
+    /** Transmission ended by the watchdog while the key is still down. */
+    public static final int STATE_FORCED = 3;
+
+    /** nextDeadline() value when no timer is needed. */
+    public static final long NO_DEADLINE = Long.MAX_VALUE;
+
+    // lastReleaseTime value before the first completed press
+    private static final long NO_RELEASE = Long.MIN_VALUE;
+
+    /** Trace records kept for dumps; a few minutes of normal use. */
+    public static final int TRACE_CAPACITY = 512;
+
+    private final LaunchTarget target;
+    private final SignalSender sender;
+    private final Clock clock;
+    private final PttLatencyStats latency = new PttLatencyStats();
+    private final TraceBuffer trace = new TraceBuffer(TRACE_CAPACITY);
+
+    // Snapshot of the configured key mapping, replaced when the setting changes
+    private volatile KeyActionTable keyActions;
+    private volatile DeviceKeyMap deviceKeys = DeviceKeyMap.EMPTY;
+    private volatile long releaseDebounceMs;
+    private volatile long maxPressMs;
+
+    // State of the current press
+    private int state = STATE_IDLE;
+    private long watchdogDeadline = NO_DEADLINE;
+    private boolean launched;
+    // The launch for this press has been claimed from the coordinator (or claiming was refused)
+    private boolean launchClaimed;
+    private volatile PressCoordinator coordinator;
+    private volatile DeviceState deviceState;
+    private int policy = DispatchPolicy.POLICY_LAUNCH_THEN_BROADCAST;
+    private final DispatchPolicy dispatchPolicy = new DispatchPolicy();
+    private long pressGeneration;
+    private long releaseDeadline;
+    private long pressEventTime;
+    private int pressKeyCode;
+    private long releaseEventTime;
+    private boolean awaitingWindow;
+    private boolean targetForeground;
+
+    // Cold-start hold and dispatch policy: the target's window has been on top at least once.
+    // Written on the dispatch thread, read by the activities' dispatch policy
+    private volatile boolean targetSeen;
+    // A launch went out and the target's window has not been on top since
+    private boolean launchUnanswered;
+    private long launchIssuedAt;
+    private volatile long coldStartHoldMs;
+    private boolean downHeld;
+    private long heldSince;
+    private long holdDeadline;
+    private final LatencyHistogram coldStartWait = new LatencyHistogram();
+
+    // Gestures
+    private volatile GestureListener gestureListener;
+    private volatile long doublePressWindowMs;
+    private volatile long longPressMs;
+    private long lastReleaseTime = NO_RELEASE;
+    private boolean longPressArmed;
+    private long longPressDeadline;
+    // Double-press candidate: PTT_DOWN waits until the press is released or doubleDeadline passes
+    private boolean doublePending;
+    private long doubleDeadline;
+
+    // Counters; single writer, volatile so other threads can read them
+    private volatile long presses;
+    private volatile long launches;
+    private volatile long launchFailures;
+    private volatile long foregroundSkippedLaunches;
+    private volatile long launchesClaimedElsewhere;
+    private volatile long policySkippedLaunches;
+    private volatile long watchdogTimeouts;
+    private volatile long watchdogLifecycleReleases;
+    private volatile long recoveryUps;
+    private volatile long supersededLaunches;
+    private volatile long suppressedRepeats;
+    private volatile long debouncedReleases;
+    private volatile long coldStartHolds;
+    private volatile long coldStartWindowFlushes;
+    private volatile long coldStartDeadlineFlushes;
+    private volatile long coldStartDrops;
+    private volatile long doublePresses;
+    private volatile long longPresses;
+    private volatile long reKeys;
+    private volatile long downSignals;
+    private volatile long targetResets;
+
+    public PressHandler(LaunchTarget target, SignalSender sender, Clock clock, int pttKeyCode) {
+        this.target = target;
+        this.sender = sender;
+        this.clock = clock;
+        this.keyActions = KeyActionTable.ofPtt(pttKeyCode);
+    }
+
+    /**
+     * Replaces the key mapping; keys mapped to ACTION_PTT drive this handler.
+     */
+    public void setKeyActions(KeyActionTable table) {
+        keyActions = table;
+    }
+
+    public KeyActionTable getKeyActions() {
+        return keyActions;
+    }
+
+    /**
+     * Replaces the per-device overrides, which take precedence over the key mapping.
+     */
+    public void setDeviceKeys(DeviceKeyMap map) {
+        deviceKeys = map;
+    }
+
+    public DeviceKeyMap getDeviceKeys() {
+        return deviceKeys;
+    }
+
+    /**
+     * @param millis how long a release must last before PTT_UP is sent; 0 disables debouncing
+     */
+    public void setReleaseDebounceMs(long millis) {
+        releaseDebounceMs = Math.max(0, millis);
+    }
+
+    public long getReleaseDebounceMs() {
+        return releaseDebounceMs;
+    }
+
+    /**
+     * @param millis longest time a PTT_DOWN is held for a cold-started target; 0 disables holding
+     */
+    public void setColdStartHoldMs(long millis) {
+        coldStartHoldMs = Math.max(0, millis);
+    }
+
+    public long getColdStartHoldMs() {
+        return coldStartHoldMs;
+    }
+
+    /**
+     * @param millis longest press before the watchdog sends PTT_UP; 0 disables the watchdog.
+     *               Applies from the next press.
+     */
+    public void setMaxPressMs(long millis) {
+        maxPressMs = Math.max(0, millis);
+    }
+
+    public long getMaxPressMs() {
+        return maxPressMs;
+    }
+
+    /**
+     * @param coordinator press state shared with the other launch paths; null to launch unconditionally
+     */
+    public void setPressCoordinator(PressCoordinator coordinator) {
+        this.coordinator = coordinator;
+    }
+
+    /**
+     * @param state screen and keyguard state for the dispatch policy; null to always launch
+     */
+    public void setDeviceState(DeviceState state) {
+        deviceState = state;
+    }
+
+    public void setGestureListener(GestureListener listener) {
+        gestureListener = listener;
+    }
+
+    /**
+     * @param millis longest gap between a release and the next press for a double press;
+     *               0 disables double-press recognition
+     */
+    public void setDoublePressWindowMs(long millis) {
+        doublePressWindowMs = Math.max(0, millis);
+    }
+
+    public long getDoublePressWindowMs() {
+        return doublePressWindowMs;
+    }
+
+    /**
+     * @param millis hold time for a long press; 0 disables long-press recognition
+     */
+    public void setLongPressMs(long millis) {
+        longPressMs = Math.max(0, millis);
+    }
+
+    /**
+     * Lookup for the input callback: one volatile read and one array load.
+     *
+     * @return KeyActionTable action for keyCode, ACTION_NONE for keys to pass through
+     */
+    public int actionFor(int keyCode) {
+        return keyActions.actionFor(keyCode);
+    }
+
+    /**
+     * Lookup for the input callback with per-device overrides. Without overrides
+     * this adds one volatile read and a size check to actionFor(keyCode).
+     *
+     * @param deviceId KeyEvent.getDeviceId()
+     */
+    public int actionFor(int deviceId, int keyCode) {
+        int override = deviceKeys.actionFor(deviceId, keyCode);
+        return override != DeviceKeyMap.NO_OVERRIDE ? override : keyActions.actionFor(keyCode);
+    }
+
+    public boolean isPttKey(int keyCode) {
+        return keyActions.actionFor(keyCode) == KeyActionTable.ACTION_PTT;
+    }
+
+    /**
+     * Handles a PTT ACTION_DOWN. All PTT keys share one press: a DOWN from a
+     * second PTT key while the first is held continues the press.
+     *
+     * @param keyCode      key that went down
+     * @param repeatCount  KeyEvent repeat count; a repeat seen while IDLE (press started
+     *                     before we were listening) starts a press like the initial DOWN
+     * @param generation   PressCoordinator generation the input callback got for this press
+     *                     from keyDown(); NO_GENERATION without a coordinator
+     * @param eventTime    hardware key event time
+     * @param receivedTime time the input callback saw the key
+     * @param superseded   an UP is already queued behind this DOWN,
+     *                     so launching the target now would be stale
+     */
+    public void onDown(int keyCode, int repeatCount, long generation, long eventTime, long receivedTime,
+            boolean superseded) {
+        switch (state) {
+            case STATE_PRESSED:
+                // Autorepeat, or a second DOWN without UP: part of the same press
+                suppressedRepeats++;
+                trace.record(TraceBuffer.EVENT_KEY_DOWN, keyCode, eventTime, clock.uptimeMillis(),
+                        TraceBuffer.OUTCOME_REPEAT);
+                return;
+            case STATE_RELEASED:
+                if (eventTime <= releaseDeadline) {
+                    // Contact chatter: the release did not last, the press continues
+                    debouncedReleases++;
+                    state = STATE_PRESSED;
+                    trace.record(TraceBuffer.EVENT_KEY_DOWN, keyCode, eventTime, clock.uptimeMillis(),
+                            TraceBuffer.OUTCOME_CHATTER);
+                    if (!launched && !superseded) {
+                        launchTarget(false);
+                    }
+                    return;
+                }
+                // The debounce timer is late; finish the old press before starting a new one
+                finishRelease();
+                break;
+            case STATE_FORCED:
+                if (repeatCount > 0) {
+                    // Still the key whose transmission the watchdog ended
+                    suppressedRepeats++;
+                    trace.record(TraceBuffer.EVENT_KEY_DOWN, keyCode, eventTime, clock.uptimeMillis(),
+                            TraceBuffer.OUTCOME_REPEAT);
+                    return;
+                }
+                // A fresh DOWN: that key's UP was lost, this is a new press
+                break;
+            default:
+                break;
+        }
+
+        state = STATE_PRESSED;
+        launched = false;
+        launchClaimed = false;
+        // Not coordinator.generation(): a later press may have started since this DOWN was queued
+        pressGeneration = generation;
+        pressEventTime = eventTime;
+        pressKeyCode = keyCode;
+        long doubleWindow = doublePressWindowMs;
+        boolean doublePress = doubleWindow > 0 && lastReleaseTime != NO_RELEASE
+                && eventTime - lastReleaseTime <= doubleWindow;
+        long longPress = longPressMs;
+        longPressArmed = longPress > 0 && !doublePress;
+        longPressDeadline = eventTime + longPress;
+        long maxPress = maxPressMs;
+        watchdogDeadline = maxPress > 0 ? eventTime + maxPress : NO_DEADLINE;
+        // No window change will follow if the target is already on top
+        awaitingWindow = !targetForeground;
+        if (launchUnanswered && eventTime - launchIssuedAt > PttLatencyStats.WINDOW_SHOWN_MAX_MS) {
+            // The last launch never brought the target's window up: it is not running any more
+            forgetTarget();
+        }
+        policy = choosePolicy();
+        latency.record(PttLatencyStats.STAGE_FILTER_ENTRY, receivedTime - eventTime);
+
+        boolean cold = false;
+        if (superseded) {
+            supersededLaunches++;
+            trace(TraceBuffer.EVENT_KEY_DOWN, eventTime, TraceBuffer.OUTCOME_SUPERSEDED);
+        } else {
+            trace(TraceBuffer.EVENT_KEY_DOWN, eventTime, TraceBuffer.OUTCOME_OK);
+            // Checked before the launch: the launch itself starts the process
+            cold = !targetForeground && !targetSeen && coldStartHoldMs > 0 && !target.isRunning();
+            launchTarget(true);
+        }
+
+        if (cold && launched) {
+            downHeld = true;
+            heldSince = clock.uptimeMillis();
+            holdDeadline = heldSince + coldStartHoldMs;
+            coldStartHolds++;
+            trace(TraceBuffer.EVENT_SIGNAL_DOWN, eventTime, TraceBuffer.OUTCOME_HELD);
+        }
+        if (doublePress) {
+            // Nothing goes out until the release (double press) or the window end (re-key)
+            doublePending = true;
+            doubleDeadline = eventTime + doubleWindow;
+            trace(TraceBuffer.EVENT_SIGNAL_DOWN, eventTime, TraceBuffer.OUTCOME_GESTURE_PENDING);
+        } else if (!downHeld) {
+            sendDown();
+        }
+    }
+
+    /**
+     * Handles a PTT ACTION_UP.
+     *
+     * @param keyCode   key that went up
+     * @param eventTime hardware key event time
+     */
+    public void onUp(int keyCode, long eventTime) {
+        long now = clock.uptimeMillis();
+        if (state == STATE_FORCED) {
+            // PTT_UP already went out from the watchdog
+            state = STATE_IDLE;
+            presses++;
+            trace.record(TraceBuffer.EVENT_KEY_UP, keyCode, eventTime, now, TraceBuffer.OUTCOME_WATCHDOG);
+            return;
+        }
+        if (state != STATE_PRESSED) {
+            trace.record(TraceBuffer.EVENT_KEY_UP, keyCode, eventTime, now, TraceBuffer.OUTCOME_IGNORED);
+            return;
+        }
+        releaseEventTime = eventTime;
+        long debounce = releaseDebounceMs;
+        if (debounce == 0) {
+            trace.record(TraceBuffer.EVENT_KEY_UP, keyCode, eventTime, now, TraceBuffer.OUTCOME_OK);
+            finishRelease();
+        } else {
+            trace.record(TraceBuffer.EVENT_KEY_UP, keyCode, eventTime, now, TraceBuffer.OUTCOME_DEBOUNCING);
+            state = STATE_RELEASED;
+            releaseDeadline = eventTime + debounce;
+        }
+    }
+
+    /**
+     * @return uptime at which onTimer() must run, or NO_DEADLINE
+     */
+    public long nextDeadline() {
+        if (state == STATE_RELEASED) {
+            return releaseDeadline;
+        }
+        if (state != STATE_PRESSED) {
+            return NO_DEADLINE;
+        }
+        long deadline = watchdogDeadline;
+        if (doublePending && doubleDeadline < deadline) {
+            deadline = doubleDeadline;
+        }
+        // While a double press is pending, the held DOWN is looked at again when it is decided
+        if (downHeld && !doublePending && holdDeadline < deadline) {
+            deadline = holdDeadline;
+        }
+        if (longPressArmed && longPressDeadline < deadline) {
+            deadline = longPressDeadline;
+        }
+        return deadline;
+    }
+
+    /**
+     * Runs deadline work that is due (a debounced release, the end of a double-press
+     * window, the end of a cold-start hold, a long press or the watchdog).
+     */
+    public void onTimer(long now) {
+        if (state == STATE_RELEASED) {
+            if (now >= releaseDeadline) {
+                finishRelease();
+            }
+            return;
+        }
+        if (doublePending && state == STATE_PRESSED && now >= doubleDeadline) {
+            // Still held: a quick re-key, not a double press
+            doublePending = false;
+            reKeys++;
+            if (!downHeld) {
+                sendDown();
+            } else if (targetForeground) {
+                coldStartWindowFlushes++;
+                sendHeldDown();
+            }
+        }
+        if (downHeld && !doublePending && now >= holdDeadline) {
+            coldStartDeadlineFlushes++;
+            sendHeldDown();
+        }
+        if (longPressArmed && state == STATE_PRESSED && now >= longPressDeadline) {
+            longPressArmed = false;
+            longPresses++;
+            reportGesture(GestureListener.GESTURE_LONG_PRESS, TraceBuffer.OUTCOME_LONG_PRESS);
+        }
+        if (state == STATE_PRESSED && now >= watchdogDeadline) {
+            watchdogTimeouts++;
+            forceRelease();
+        }
+    }
+
+    /**
+     * Ends the press right away, e.g. when the owner is interrupted or shuts down and
+     * will not see the key's UP. A pending debounced release is sent; a press still in
+     * progress gets a watchdog PTT_UP; a held PTT_DOWN is dropped, as nothing has been
+     * sent for that press yet.
+     */
+    public void flush() {
+        if (state == STATE_RELEASED) {
+            finishRelease();
+        } else if (state == STATE_PRESSED) {
+            watchdogLifecycleReleases++;
+            forceRelease();
+        }
+    }
+
+    /**
+     * Sends a PTT_UP with no press in progress, for a previous process that may have
+     * died mid-press. Harmless to an idle target; skipped while a press is in progress.
+     */
+    public void sendRecoveryUp() {
+        if (state != STATE_IDLE) {
+            return;
+        }
+        boolean sent = sender.sendPtt(false);
+        recoveryUps++;
+        trace.record(TraceBuffer.EVENT_SIGNAL_UP, 0, clock.uptimeMillis(), clock.uptimeMillis(),
+                sent ? TraceBuffer.OUTCOME_WATCHDOG : TraceBuffer.OUTCOME_FAILED);
+    }
+
+    /**
+     * Handles a window-state change of the foreground app.
+     *
+     * @param targetOnTop true if the target's window is now on top
+     * @param eventTime   time of the window change
+     */
+    public void onForegroundChanged(boolean targetOnTop, long eventTime) {
+        if (targetOnTop != targetForeground) {
+            trace.record(TraceBuffer.EVENT_FOREGROUND, 0, eventTime, clock.uptimeMillis(),
+                    targetOnTop ? TraceBuffer.OUTCOME_TARGET_ON_TOP : TraceBuffer.OUTCOME_TARGET_HIDDEN);
+        }
+        targetForeground = targetOnTop;
+        if (targetOnTop) {
+            targetSeen = true;
+            launchUnanswered = false;
+            if (downHeld && !doublePending) {
+                // The target is up; a release still being debounced follows with PTT_UP
+                coldStartWindowFlushes++;
+                sendHeldDown();
+            }
+        }
+        if (!targetOnTop || !awaitingWindow) {
+            return;
+        }
+        long elapsed = eventTime - pressEventTime;
+        // Window changes long after the press were not caused by it
+        if (elapsed >= 0 && elapsed <= PttLatencyStats.WINDOW_SHOWN_MAX_MS) {
+            awaitingWindow = false;
+            latency.record(PttLatencyStats.STAGE_WINDOW_SHOWN, elapsed);
+        }
+    }
+
+    /**
+     * Handles the target app being installed, replaced or removed: its window no longer
+     * counts as seen, so the next press that launches it treats it as cold again.
+     */
+    public void onTargetChanged() {
+        forgetTarget();
+    }
+
+    private void forgetTarget() {
+        launchUnanswered = false;
+        if (targetSeen) {
+            targetSeen = false;
+            targetResets++;
+        }
+    }
+
+    public int getState() {
+        return state;
+    }
+
+    /**
+     * True while the press's PTT_DOWN is held back, for a cold-starting target or until
+     * a double press is decided.
+     */
+    public boolean isDownHeld() {
+        return downHeld || doublePending;
+    }
+
+    /** Hardware event time of the current or last press's DOWN. */
+    public long getPressEventTime() {
+        return pressEventTime;
+    }
+
+    /** PTT_DOWN signals sent (held ones once they went out). */
+    public long getDownSignals() {
+        return downSignals;
+    }
+
+    public PttLatencyStats getLatencyStats() {
+        return latency;
+    }
+
+    /** Recent trace records; read only from the thread that drives this handler. */
+    public TraceBuffer getTrace() {
+        return trace;
+    }
+
+    /** Completed presses (PTT_DOWN followed by PTT_UP). */
+    public long getPresses() {
+        return presses;
+    }
+
+    /** Target launches issued. */
+    public long getLaunches() {
+        return launches;
+    }
+
+    /** Launches attempted that did not start the target. */
+    public long getLaunchFailures() {
+        return launchFailures;
+    }
+
+    /** Launches skipped because the target was already in the foreground. */
+    public long getForegroundSkippedLaunches() {
+        return foregroundSkippedLaunches;
+    }
+
+    /** Presses cut off by the watchdog after the maximum press time. */
+    public long getWatchdogTimeouts() {
+        return watchdogTimeouts;
+    }
+
+    /** Presses ended by flush() because the owner went away mid-press. */
+    public long getWatchdogLifecycleReleases() {
+        return watchdogLifecycleReleases;
+    }
+
+    public long getRecoveryUps() {
+        return recoveryUps;
+    }
+
+    /** PressCoordinator generation of the current or last press; NO_GENERATION without a coordinator. */
+    public long getPressGeneration() {
+        return pressGeneration;
+    }
+
+    /** Launches skipped by the dispatch policy (locked or dark device, target running). */
+    public long getPolicySkippedLaunches() {
+        return policySkippedLaunches;
+    }
+
+    /** Key-to-PTT_DOWN latency per dispatch policy; read only from the thread that drives this handler. */
+    public DispatchPolicy getDispatchPolicy() {
+        return dispatchPolicy;
+    }
+
+    /** Dispatch policy of the current or last press (DispatchPolicy.POLICY_ constant). */
+    public int getPolicy() {
+        return policy;
+    }
+
+    /** Launches left to another path that had already claimed the press. */
+    public long getLaunchesClaimedElsewhere() {
+        return launchesClaimedElsewhere;
+    }
+
+    public boolean isTargetForeground() {
+        return targetForeground;
+    }
+
+    /**
+     * True once the target's window has been on top (it is running). Cleared when the target
+     * app changes, and when a launch is not followed by its window (its process is gone).
+     */
+    public boolean isTargetSeen() {
+        return targetSeen;
+    }
+
+    /** Times the target stopped counting as seen (app changed, or a launch brought no window). */
+    public long getTargetResets() {
+        return targetResets;
+    }
+
+    /** Launches skipped because the press was superseded before the launch ran. */
+    public long getSupersededLaunches() {
+        return supersededLaunches;
+    }
+
+    /** Autorepeat DOWNs absorbed into an ongoing press. */
+    public long getSuppressedRepeats() {
+        return suppressedRepeats;
+    }
+
+    /** Releases cancelled by a DOWN inside the debounce window (contact chatter). */
+    public long getDebouncedReleases() {
+        return debouncedReleases;
+    }
+
+    /** PTT_DOWNs held because the target was cold. */
+    public long getColdStartHolds() {
+        return coldStartHolds;
+    }
+
+    /** Held PTT_DOWNs sent when the target's window appeared. */
+    public long getColdStartWindowFlushes() {
+        return coldStartWindowFlushes;
+    }
+
+    /** Held PTT_DOWNs sent when the cold-start hold ran out. */
+    public long getColdStartDeadlineFlushes() {
+        return coldStartDeadlineFlushes;
+    }
+
+    /** Held PTT_DOWNs dropped because the press ended first. */
+    public long getColdStartDrops() {
+        return coldStartDrops;
+    }
+
+    /** Time held PTT_DOWNs waited before being sent or dropped. */
+    public LatencyHistogram getColdStartWait() {
+        return coldStartWait;
+    }
+
+    public long getDoublePresses() {
+        return doublePresses;
+    }
+
+    public long getLongPresses() {
+        return longPresses;
+    }
+
+    /** Double-press candidates still held when the window ended, sent as a normal press. */
+    public long getReKeys() {
+        return reKeys;
+    }
+
+    private void sendDown() {
+        boolean sent = sender.sendPtt(true);
+        downSignals++;
+        long elapsed = sincePress();
+        latency.record(PttLatencyStats.STAGE_BROADCAST_SENT, elapsed);
+        dispatchPolicy.record(policy, elapsed);
+        trace(TraceBuffer.EVENT_SIGNAL_DOWN, pressEventTime, sent ? TraceBuffer.OUTCOME_OK : TraceBuffer.OUTCOME_FAILED);
+    }
+
+    private void sendHeldDown() {
+        downHeld = false;
+        coldStartWait.record(clock.uptimeMillis() - heldSince);
+        sendDown();
+    }
+
+    private void dropHeldDown() {
+        downHeld = false;
+        coldStartWait.record(clock.uptimeMillis() - heldSince);
+        coldStartDrops++;
+        trace(TraceBuffer.EVENT_SIGNAL_DOWN, pressEventTime, TraceBuffer.OUTCOME_DROPPED);
+    }
+
+    private void forceRelease() {
+        longPressArmed = false;
+        state = STATE_FORCED;
+        if (downHeld) {
+            // Nothing went out yet
+            dropHeldDown();
+        } else if (!doublePending) {
+            boolean sent = sender.sendPtt(false);
+            trace(TraceBuffer.EVENT_SIGNAL_UP, pressEventTime,
+                    sent ? TraceBuffer.OUTCOME_WATCHDOG : TraceBuffer.OUTCOME_FAILED);
+        }
+        doublePending = false;
+    }
+
+    private void confirmDoublePress() {
+        doublePending = false;
+        doublePresses++;
+        // A third press in a row starts over instead of being another double press
+        lastReleaseTime = NO_RELEASE;
+        if (downHeld) {
+            dropHeldDown();
+        } else {
+            trace(TraceBuffer.EVENT_SIGNAL_DOWN, pressEventTime, TraceBuffer.OUTCOME_DROPPED);
+        }
+        reportGesture(GestureListener.GESTURE_DOUBLE_PRESS, TraceBuffer.OUTCOME_DOUBLE_PRESS);
+    }
+
+    private void reportGesture(int gesture, int outcome) {
+        trace(TraceBuffer.EVENT_GESTURE, pressEventTime, outcome);
+        GestureListener listener = gestureListener;
+        if (listener != null) {
+            listener.onGesture(gesture, pressKeyCode);
+        }
+    }
+
+    private void finishRelease() {
+        longPressArmed = false;
+        if (doublePending) {
+            // Released within the window: a double press, and no PTT_DOWN went out for it
+            state = STATE_IDLE;
+            confirmDoublePress();
+            presses++;
+            return;
+        }
+        lastReleaseTime = releaseEventTime;
+        if (downHeld) {
+            // Released before the target was ready: no PTT_DOWN went out, so no PTT_UP either
+            state = STATE_IDLE;
+            dropHeldDown();
+            presses++;
+            return;
+        }
+        state = STATE_IDLE;
+        boolean sent = sender.sendPtt(false);
+        presses++;
+        trace(TraceBuffer.EVENT_SIGNAL_UP, releaseEventTime, sent ? TraceBuffer.OUTCOME_OK : TraceBuffer.OUTCOME_FAILED);
+    }
+
+    private void launchTarget(boolean firstDown) {
+        if (!launchClaimed) {
+            launchClaimed = true;
+            PressCoordinator pressCoordinator = coordinator;
+            if (pressCoordinator != null && !pressCoordinator.claimLaunch(pressGeneration)) {
+                launched = true;
+                launchesClaimedElsewhere++;
+                trace(TraceBuffer.EVENT_LAUNCH, pressEventTime, TraceBuffer.OUTCOME_CLAIMED_ELSEWHERE);
+                return;
+            }
+        }
+        if (targetForeground) {
+            // Already on top: a launch would only cost an activity-manager round trip
+            foregroundSkippedLaunches++;
+            launched = true;
+            trace(TraceBuffer.EVENT_LAUNCH, pressEventTime, TraceBuffer.OUTCOME_SKIPPED_FOREGROUND);
+            return;
+        }
+        if (!DispatchPolicy.launches(policy)) {
+            // Locked or dark, target running: PTT_DOWN alone reaches it faster
+            policySkippedLaunches++;
+            launched = true;
+            awaitingWindow = false;
+            trace(TraceBuffer.EVENT_LAUNCH, pressEventTime, TraceBuffer.OUTCOME_SKIPPED_POLICY);
+            return;
+        }
+        boolean available = target.isAvailable();
+        if (firstDown) {
+            latency.record(PttLatencyStats.STAGE_TARGET_RESOLVED, sincePress());
+        }
+        if (!available) {
+            trace(TraceBuffer.EVENT_LAUNCH, pressEventTime, TraceBuffer.OUTCOME_UNAVAILABLE);
+        } else if (target.launch()) {
+            launched = true;
+            launches++;
+            launchUnanswered = true;
+            launchIssuedAt = clock.uptimeMillis();
+            if (firstDown) {
+                latency.record(PttLatencyStats.STAGE_LAUNCH_ISSUED, sincePress());
+            }
+            trace(TraceBuffer.EVENT_LAUNCH, pressEventTime, TraceBuffer.OUTCOME_OK);
+        } else {
+            launchFailures++;
+            trace(TraceBuffer.EVENT_LAUNCH, pressEventTime, TraceBuffer.OUTCOME_FAILED);
+        }
+    }
+
+    private int choosePolicy() {
+        DeviceState device = deviceState;
+        if (targetForeground || device == null) {
+            return DispatchPolicy.choose(true, false, targetForeground, false, true);
+        }
+        // Field reads only: no keyguard or process query on the way to PTT_DOWN.
+        // "Running" is the target's window having been seen (isRunning() is a system
+        // call, and on 5.1+ it cannot see other apps' processes anyway)
+        return DispatchPolicy.choose(device.isScreenOn(), device.isLocked(), false, targetSeen, true);
+    }
+
+    private void trace(int event, long eventTime, int outcome) {
+        trace.record(event, pressKeyCode, eventTime, clock.uptimeMillis(), outcome);
+    }
+
+    private long sincePress() {
+        return clock.uptimeMillis() - pressEventTime;
+    }
+}
@@ -0,0 +1,61 @@
+package ru.chepil.hytalkptt.core;
+
+/**
+ * Press-to-transmit latency per stage, measured from the hardware key
+ * event time (KeyEvent.getEventTime(), uptime millis).
+ * Written only by the thread that drives PressHandler.
+ */
+public final class PttLatencyStats {
+
+    /** onKeyEvent entered (input pipeline + accessibility filter delay). */
+    public static final int STAGE_FILTER_ENTRY = 0;
+    /** HyTalk launch target resolved. */
+    public static final int STAGE_TARGET_RESOLVED = 1;
+    /** startActivity for HyTalk returned. */
+    public static final int STAGE_LAUNCH_ISSUED = 2;
+    /** PTT_DOWN broadcast sent. */
+    public static final int STAGE_BROADCAST_SENT = 3;
+    /** HyTalk window-state change seen in onAccessibilityEvent. */
+    public static final int STAGE_WINDOW_SHOWN = 4;
+    public static final int STAGE_COUNT = 5;
+
+    /** Window changes later than this after a press are not attributed to it. */
+    public static final long WINDOW_SHOWN_MAX_MS = 5000;
+
+    private static final String[] STAGE_NAMES = {
+            "filter_entry", "target_resolved", "launch_issued", "broadcast_sent", "window_shown"
+    };
+
+    private final LatencyHistogram[] histograms = new LatencyHistogram[STAGE_COUNT];
+
+    public PttLatencyStats() {
+        for (int i = 0; i < STAGE_COUNT; i++) {
+            histograms[i] = new LatencyHistogram();
+        }
+    }
+
+    public void record(int stage, long millis) {
+        histograms[stage].record(millis);
+    }
+
+    public long count(int stage) {
+        return histograms[stage].count();
+    }
+
+    public void reset() {
+        for (LatencyHistogram histogram : histograms) {
+            histogram.reset();
+        }
+    }
+
+    /**
+     * Appends one line per stage: "name: n=.. p50=..ms p95=..ms p99=..ms max=..ms".
+     */
+    public void appendReport(StringBuilder sb) {
+        for (int i = 0; i < STAGE_COUNT; i++) {
+            sb.append(STAGE_NAMES[i]).append(": ");
+            histograms[i].appendSummary(sb);
+            sb.append('\n');
+        }
+    }
+}
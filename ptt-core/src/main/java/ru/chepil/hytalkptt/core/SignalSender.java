@@ -0,0 +1,13 @@
+package ru.chepil.hytalkptt.core;
+
+/**
+ * Delivers the PTT signal to the target (PTT_DOWN / PTT_UP).
+ */
+public interface SignalSender {
+
+    /**
+     * @param down true for PTT_DOWN, false for PTT_UP
+     * @return true if the signal was sent
+     */
+    boolean sendPtt(boolean down);
+}
@@ -0,0 +1,141 @@
+package ru.chepil.hytalkptt.core;
+
+/**
+ * Preallocated ring buffer of press-path trace records, kept in memory instead
+ * of writing a log line per key event. A record is primitives only (event type,
+ * keycode, key event time, record time, outcome), stored in parallel arrays, so
+ * record() never allocates. Text is only built when appendTo() is called for a dump.
+ *
+ * Not synchronized: record() and appendTo() must run on the same thread
+ * (the dispatch thread on Android). When full, the oldest records are overwritten.
+ */
+public final class TraceBuffer {
+
+    public static final int EVENT_KEY_DOWN = 0;
+    public static final int EVENT_KEY_UP = 1;
+    public static final int EVENT_LAUNCH = 2;
+    public static final int EVENT_SIGNAL_DOWN = 3;
+    public static final int EVENT_SIGNAL_UP = 4;
+    public static final int EVENT_FOREGROUND = 5;
+    /** Side-key action (emergency, channel) sent. */
+    public static final int EVENT_ACTION = 6;
+    public static final int EVENT_GESTURE = 7;
+
+    private static final String[] EVENT_NAMES = {
+            "key_down", "key_up", "launch", "signal_down", "signal_up", "foreground", "action", "gesture"
+    };
+
+    public static final int OUTCOME_OK = 0;
+    public static final int OUTCOME_FAILED = 1;
+    /** DOWN absorbed into the ongoing press (autorepeat). */
+    public static final int OUTCOME_REPEAT = 2;
+    /** DOWN inside the release debounce window (contact chatter). */
+    public static final int OUTCOME_CHATTER = 3;
+    /** Launch not issued because the target was already on top. */
+    public static final int OUTCOME_SKIPPED_FOREGROUND = 4;
+    /** Launch not issued because the UP was already queued. */
+    public static final int OUTCOME_SUPERSEDED = 5;
+    /** UP held back for the debounce window. */
+    public static final int OUTCOME_DEBOUNCING = 6;
+    /** UP without a press in progress. */
+    public static final int OUTCOME_IGNORED = 7;
+    /** Launch target not installed. */
+    public static final int OUTCOME_UNAVAILABLE = 8;
+    public static final int OUTCOME_TARGET_ON_TOP = 9;
+    public static final int OUTCOME_TARGET_HIDDEN = 10;
+    /** PTT_DOWN held back until the cold-started target is ready. */
+    public static final int OUTCOME_HELD = 11;
+    /**
+     * Held PTT_DOWN dropped (and its PTT_UP not sent): released before the target was ready,
+     * or the press was a double press.
+     */
+    public static final int OUTCOME_DROPPED = 12;
+    public static final int OUTCOME_DOUBLE_PRESS = 13;
+    public static final int OUTCOME_LONG_PRESS = 14;
+    /** PTT_DOWN held back until a possible double press is decided. */
+    public static final int OUTCOME_GESTURE_PENDING = 15;
+    /** Launch not issued because another path (e.g. Programmable Keys) launched for the press. */
+    public static final int OUTCOME_CLAIMED_ELSEWHERE = 16;
+    /** PTT_UP sent without a key release: press too long, service going away, or restart recovery. */
+    public static final int OUTCOME_WATCHDOG = 17;
+    /** Launch not issued because the dispatch policy chose broadcast only (device locked or dark). */
+    public static final int OUTCOME_SKIPPED_POLICY = 18;
+
+    private static final String[] OUTCOME_NAMES = {
+            "ok", "failed", "repeat", "chatter", "skipped_foreground", "superseded",
+            "debouncing", "ignored", "unavailable", "target_on_top", "target_hidden",
+            "held", "dropped", "double_press", "long_press", "gesture_pending",
+            "claimed_elsewhere", "watchdog", "skipped_policy"
+    };
+
+    private final int mask;
+    private final byte[] events;
+    private final byte[] outcomes;
+    private final int[] keyCodes;
+    private final long[] eventTimes;
+    private final long[] times;
+
+    // Records written since creation or reset(); the next slot is written & mask
+    private long written;
+
+    /**
+     * @param capacity number of records kept; rounded up to a power of two
+     */
+    public TraceBuffer(int capacity) {
+        int size = Integer.highestOneBit(Math.max(1, capacity - 1)) << 1;
+        mask = size - 1;
+        events = new byte[size];
+        outcomes = new byte[size];
+        keyCodes = new int[size];
+        eventTimes = new long[size];
+        times = new long[size];
+    }
+
+    /**
+     * @param event     one of the EVENT_ constants
+     * @param keyCode   keycode of the press, 0 if none
+     * @param eventTime hardware key event time (uptime millis)
+     * @param time      uptime millis when the event was handled
+     * @param outcome   one of the OUTCOME_ constants
+     */
+    public void record(int event, int keyCode, long eventTime, long time, int outcome) {
+        int i = (int) written & mask;
+        events[i] = (byte) event;
+        outcomes[i] = (byte) outcome;
+        keyCodes[i] = keyCode;
+        eventTimes[i] = eventTime;
+        times[i] = time;
+        written++;
+    }
+
+    public int capacity() {
+        return mask + 1;
+    }
+
+    /** Records written in total, including the ones already overwritten. */
+    public long written() {
+        return written;
+    }
+
+    public void reset() {
+        written = 0;
+    }
+
+    /**
+     * Appends the kept records, oldest first, one per line:
+     * time, event, keycode, delay since the key event, outcome.
+     */
+    public void appendTo(StringBuilder sb) {
+        long first = Math.max(0, written - capacity());
+        sb.append("trace: ").append(written - first).append(" of ").append(written).append(" records\n");
+        for (long n = first; n < written; n++) {
+            int i = (int) n & mask;
+            sb.append(times[i]).append(' ').append(EVENT_NAMES[events[i]]);
+            if (keyCodes[i] != 0) {
+                sb.append(" key=").append(keyCodes[i]);
+            }
+            sb.append(" +").append(times[i] - eventTimes[i]).append("ms ")
+                    .append(OUTCOME_NAMES[outcomes[i]]).append('\n');
+        }
+    }
+}
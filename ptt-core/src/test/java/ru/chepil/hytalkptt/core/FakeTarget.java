@@ -0,0 +1,92 @@
+package ru.chepil.hytalkptt.core;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Manual clock and fake target for PressHandler tests; signals, launches and gestures
+ * are logged in order as "DOWN@t", "UP@t", "LAUNCH@t", "DOUBLE@t" and "LONG@t".
+ */
+final class FakeTarget implements LaunchTarget, SignalSender, Clock, GestureListener {
+
+    static final int PTT_KEYCODE = 228;
+
+    long now = 1000;
+    boolean running = true;
+    final List<String> log = new ArrayList<String>();
+
+    @Override
+    public boolean isAvailable() {
+        return true;
+    }
+
+    @Override
+    public boolean isRunning() {
+        return running;
+    }
+
+    @Override
+    public boolean launch() {
+        log.add("LAUNCH@" + now);
+        return true;
+    }
+
+    @Override
+    public boolean sendPtt(boolean down) {
+        log.add((down ? "DOWN@" : "UP@") + now);
+        return true;
+    }
+
+    @Override
+    public long uptimeMillis() {
+        return now;
+    }
+
+    @Override
+    public void onGesture(int gesture, int keyCode) {
+        log.add((gesture == GESTURE_DOUBLE_PRESS ? "DOUBLE@" : "LONG@") + now);
+    }
+
+    PressHandler newHandler() {
+        return new PressHandler(this, this, this, PTT_KEYCODE);
+    }
+
+    /** A DOWN at the current time. */
+    void down(PressHandler handler) {
+        handler.onDown(PTT_KEYCODE, 0, PressCoordinator.NO_GENERATION, now, now, false);
+    }
+
+    /** A 100 ms press: DOWN now, UP 100 ms later. */
+    void press(PressHandler handler) {
+        down(handler);
+        now += 100;
+        handler.onUp(PTT_KEYCODE, now);
+    }
+
+    /** Advances the clock to the handler's next deadline and runs it. */
+    void runTimer(PressHandler handler) {
+        now = handler.nextDeadline();
+        handler.onTimer(now);
+    }
+
+    /** Log entries from index from on. */
+    List<String> since(int from) {
+        return new ArrayList<String>(log.subList(from, log.size()));
+    }
+
+    /** Every PTT_UP follows an unanswered PTT_DOWN, and the log does not end keyed up. */
+    void assertPaired() {
+        boolean keyed = false;
+        for (String entry : log) {
+            if (entry.startsWith("DOWN@") || entry.startsWith("UP@")) {
+                boolean down = entry.startsWith("DOWN@");
+                assertTrue("unpaired " + entry + " in " + log, down != keyed);
+                keyed = down;
+            }
+        }
+        assertFalse("ends keyed up: " + log, keyed);
+    }
+}
@@ -0,0 +1,54 @@
+package ru.chepil.hytalkptt.core;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Key mapping tables, and per-device overrides resolved through PressHandler.actionFor().
+ */
+public class KeyActionTableTest {
+
+    private static final int PTT_KEYCODE = 228;
+    private static final int OTHER_KEYCODE = 521;
+    private static final int ACCESSORY_DEVICE = 9;
+    private static final int BUILT_IN_DEVICE = 3;
+
+    @Test
+    public void withNoneRemovesKey() {
+        KeyActionTable table = KeyActionTable.ofPtt(PTT_KEYCODE).with(PTT_KEYCODE, KeyActionTable.ACTION_NONE);
+        assertEquals(-1, table.nextMappedKey(0));
+        assertEquals("", table.encode());
+    }
+
+    @Test
+    public void explicitNoneSurvivesEncodeAndParse() {
+        KeyActionTable table = KeyActionTable.EMPTY
+                .withOverride(PTT_KEYCODE, KeyActionTable.ACTION_NONE)
+                .withOverride(OTHER_KEYCODE, KeyActionTable.ACTION_EMERGENCY);
+        assertEquals("228:none,521:emergency", table.encode());
+
+        KeyActionTable parsed = KeyActionTable.parse(table.encode());
+        assertEquals(KeyActionTable.ACTION_NONE, parsed.actionFor(PTT_KEYCODE));
+        assertEquals(PTT_KEYCODE, parsed.nextMappedKey(0));
+        assertEquals(OTHER_KEYCODE, parsed.nextMappedKey(PTT_KEYCODE + 1));
+        assertEquals(table.encode(), parsed.encode());
+    }
+
+    /** An accessory whose PTT key is cleared passes it through; other devices keep the global PTT. */
+    @Test
+    public void deviceNoneOverridesGlobalMapping() {
+        KeyActionTable accessory = KeyActionTable.EMPTY.withOverride(PTT_KEYCODE, KeyActionTable.ACTION_NONE);
+        DeviceKeyMap.Builder builder = new DeviceKeyMap.Builder();
+        // As InputDeviceKeys builds the map
+        for (int keyCode = accessory.nextMappedKey(0); keyCode >= 0; keyCode = accessory.nextMappedKey(keyCode + 1)) {
+            builder.put(ACCESSORY_DEVICE, keyCode, accessory.actionFor(keyCode));
+        }
+
+        FakeTarget target = new FakeTarget();
+        PressHandler handler = target.newHandler();
+        handler.setDeviceKeys(builder.build());
+        assertEquals(KeyActionTable.ACTION_NONE, handler.actionFor(ACCESSORY_DEVICE, PTT_KEYCODE));
+        assertEquals(KeyActionTable.ACTION_PTT, handler.actionFor(BUILT_IN_DEVICE, PTT_KEYCODE));
+    }
+}
@@ -0,0 +1,88 @@
+package ru.chepil.hytalkptt.core;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Cold-start hold: when the target counts as seen, and when it stops counting.
+ */
+public class PressHandlerColdStartTest {
+
+    private static final long COLD_START_HOLD_MS = 3000;
+
+    private FakeTarget target;
+    private PressHandler handler;
+
+    @Before
+    public void setUp() {
+        target = new FakeTarget();
+        handler = target.newHandler();
+        handler.setReleaseDebounceMs(0);
+        handler.setColdStartHoldMs(COLD_START_HOLD_MS);
+        // Seen on top once, then sent to the background and its process gone
+        handler.onForegroundChanged(true, target.now);
+        target.now += 100;
+        handler.onForegroundChanged(false, target.now);
+        target.running = false;
+    }
+
+    /** Seen, then killed: the launch brings no window, so the next press is held. */
+    @Test
+    public void seenKilledColdPress() {
+        // Still counts as seen: PTT_DOWN goes out with the launch, and nothing comes up
+        target.now += 1000;
+        target.press(handler);
+        assertEquals(Arrays.asList("LAUNCH@2100", "DOWN@2100", "UP@2200"), target.log);
+
+        target.now += PttLatencyStats.WINDOW_SHOWN_MAX_MS + 1000;
+        int from = target.log.size();
+        long pressTime = target.now;
+        target.down(handler);
+        assertFalse(handler.isTargetSeen());
+        assertEquals(1, handler.getTargetResets());
+        assertTrue(handler.isDownHeld());
+        assertEquals(1, handler.getColdStartHolds());
+
+        target.now += 800;
+        handler.onForegroundChanged(true, target.now);
+        assertEquals(Arrays.asList("LAUNCH@" + pressTime, "DOWN@" + target.now), target.since(from));
+    }
+
+    /** Seen, then the app was reinstalled: the next press is held until the hold ends. */
+    @Test
+    public void targetChangedColdPress() {
+        handler.onTargetChanged();
+        assertFalse(handler.isTargetSeen());
+
+        target.now += 100;
+        long pressTime = target.now;
+        target.down(handler);
+        assertTrue(handler.isDownHeld());
+        target.now += COLD_START_HOLD_MS;
+        handler.onTimer(target.now);
+        assertEquals(Arrays.asList("LAUNCH@" + pressTime, "DOWN@" + target.now), target.log);
+    }
+
+    /** A launch answered by the window keeps the target seen; later presses are not held. */
+    @Test
+    public void seenLaunchedWarmPress() {
+        target.now += 1000;
+        target.press(handler);
+        handler.onForegroundChanged(true, target.now);
+        target.now += 100;
+        handler.onForegroundChanged(false, target.now);
+
+        target.now += PttLatencyStats.WINDOW_SHOWN_MAX_MS + 1000;
+        int from = target.log.size();
+        target.down(handler);
+        assertTrue(handler.isTargetSeen());
+        assertEquals(0, handler.getTargetResets());
+        assertEquals(Arrays.asList("LAUNCH@" + target.now, "DOWN@" + target.now), target.since(from));
+    }
+}
@@ -0,0 +1,55 @@
+package ru.chepil.hytalkptt.core;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Launch claims with a PressCoordinator: each DOWN claims the generation the input
+ * callback got for it, however late the dispatch thread handles it.
+ */
+public class PressHandlerGenerationTest {
+
+    private FakeTarget target;
+    private PressCoordinator coordinator;
+    private PressHandler handler;
+
+    @Before
+    public void setUp() {
+        target = new FakeTarget();
+        coordinator = new PressCoordinator();
+        handler = target.newHandler();
+        handler.setReleaseDebounceMs(0);
+        handler.setPressCoordinator(coordinator);
+    }
+
+    /** The first press's DOWN reaches the dispatch thread after the input callback already started press 2. */
+    @Test
+    public void lateDownClaimsItsOwnGeneration() {
+        long first = coordinator.keyDown();
+        coordinator.keyUp(first, target.now);
+        long second = coordinator.keyDown();
+        assertEquals(first + 1, second);
+
+        // Press 1 is over, so its late launch is refused rather than taking press 2's
+        handler.onDown(FakeTarget.PTT_KEYCODE, 0, first, target.now, target.now, false);
+        assertEquals(first, handler.getPressGeneration());
+        target.now += 50;
+        handler.onUp(FakeTarget.PTT_KEYCODE, target.now);
+
+        target.now += 50;
+        long pressTime = target.now;
+        handler.onDown(FakeTarget.PTT_KEYCODE, 0, second, pressTime, pressTime, false);
+        assertEquals(second, handler.getPressGeneration());
+        target.now += 100;
+        handler.onUp(FakeTarget.PTT_KEYCODE, target.now);
+
+        assertEquals(Arrays.asList("DOWN@1000", "UP@1050", "LAUNCH@" + pressTime, "DOWN@" + pressTime,
+                "UP@" + target.now), target.log);
+        assertEquals(1, coordinator.getStaleTransitions());
+        assertEquals(0, coordinator.getDuplicateLaunches());
+    }
+}
@@ -0,0 +1,169 @@
+package ru.chepil.hytalkptt.core;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Gesture recognition with double press and long press both enabled: signal order and timing.
+ */
+public class PressHandlerGestureTest {
+
+    private static final long DEBOUNCE_MS = 30;
+    private static final long DOUBLE_PRESS_WINDOW_MS = 400;
+    private static final long LONG_PRESS_MS = 800;
+    private static final long COLD_START_HOLD_MS = 3000;
+
+    private FakeTarget target;
+    private PressHandler handler;
+
+    @Before
+    public void setUp() {
+        target = new FakeTarget();
+        handler = target.newHandler();
+        handler.setReleaseDebounceMs(DEBOUNCE_MS);
+        handler.setDoublePressWindowMs(DOUBLE_PRESS_WINDOW_MS);
+        handler.setLongPressMs(LONG_PRESS_MS);
+        handler.setGestureListener(target);
+    }
+
+    /** Warm target on top: no launches in the log. */
+    private void targetOnTop() {
+        handler.onForegroundChanged(true, target.now);
+    }
+
+    /** Every press outside the double-press window sends PTT_DOWN inside its own onDown call. */
+    @Test
+    public void plainPressDownNotDelayed() {
+        targetOnTop();
+        for (int i = 0; i < 3; i++) {
+            int from = target.log.size();
+            long pressTime = target.now;
+            target.down(handler);
+            assertEquals("press " + i, Collections.singletonList("DOWN@" + pressTime), target.since(from));
+            target.now += 100;
+            handler.onUp(FakeTarget.PTT_KEYCODE, target.now);
+            target.runTimer(handler);
+            // Past the double-press window, so each press is a plain one
+            target.now += DOUBLE_PRESS_WINDOW_MS + 100;
+        }
+        assertEquals(0, handler.getDoublePresses());
+        assertEquals(0, handler.getLongPresses());
+        target.assertPaired();
+    }
+
+    /** A double press: the second press is held, then released within the window; no PTT signal at all. */
+    @Test
+    public void doublePressSendsNothing() {
+        targetOnTop();
+        target.press(handler);
+        target.runTimer(handler);
+
+        target.now += DOUBLE_PRESS_WINDOW_MS / 2;
+        int from = target.log.size();
+        target.down(handler);
+        assertTrue(handler.isDownHeld());
+        assertEquals(Collections.emptyList(), target.since(from));
+        target.now += 100;
+        handler.onUp(FakeTarget.PTT_KEYCODE, target.now);
+        long releaseTime = target.now;
+        target.runTimer(handler);
+        assertEquals(Collections.singletonList("DOUBLE@" + (releaseTime + DEBOUNCE_MS)), target.since(from));
+
+        // A third press right after is a plain press again
+        target.now += DOUBLE_PRESS_WINDOW_MS / 2;
+        from = target.log.size();
+        long pressTime = target.now;
+        target.down(handler);
+        assertEquals(Collections.singletonList("DOWN@" + pressTime), target.since(from));
+        target.now += 100;
+        handler.onUp(FakeTarget.PTT_KEYCODE, target.now);
+        target.runTimer(handler);
+        target.assertPaired();
+        assertEquals(1, handler.getDoublePresses());
+        assertEquals(0, handler.getReKeys());
+    }
+
+    /** A quick re-key inside the window: still held when the window ends, so it transmits from then on. */
+    @Test
+    public void reKeyTransmitsAfterWindow() {
+        targetOnTop();
+        target.press(handler);
+        target.runTimer(handler);
+
+        target.now += DOUBLE_PRESS_WINDOW_MS / 2;
+        int from = target.log.size();
+        long pressTime = target.now;
+        target.down(handler);
+        assertEquals(pressTime + DOUBLE_PRESS_WINDOW_MS, handler.nextDeadline());
+        target.runTimer(handler);
+        assertFalse(handler.isDownHeld());
+        target.now += 2000;
+        handler.onUp(FakeTarget.PTT_KEYCODE, target.now);
+        long releaseTime = target.now;
+        target.runTimer(handler);
+        assertEquals(Arrays.asList("DOWN@" + (pressTime + DOUBLE_PRESS_WINDOW_MS),
+                "UP@" + (releaseTime + DEBOUNCE_MS)), target.since(from));
+        assertEquals(0, handler.getDoublePresses());
+        assertEquals(1, handler.getReKeys());
+        assertEquals(0, handler.getLongPresses());
+        target.assertPaired();
+    }
+
+    /** Service interrupted while a double press is pending: nothing went out, so no PTT_UP either. */
+    @Test
+    public void flushWhileDoublePendingSendsNothing() {
+        targetOnTop();
+        target.press(handler);
+        target.runTimer(handler);
+
+        target.now += DOUBLE_PRESS_WINDOW_MS / 2;
+        int from = target.log.size();
+        target.down(handler);
+        handler.flush();
+        assertEquals(Collections.emptyList(), target.since(from));
+        target.assertPaired();
+    }
+
+    /** A long press is reported at the long-press time; the transmission ends at the release. */
+    @Test
+    public void longPressKeepsTransmitting() {
+        targetOnTop();
+        long pressTime = target.now;
+        target.down(handler);
+        assertEquals(pressTime + LONG_PRESS_MS, handler.nextDeadline());
+        target.runTimer(handler);
+        target.now += 500;
+        handler.onUp(FakeTarget.PTT_KEYCODE, target.now);
+        long releaseTime = target.now;
+        target.runTimer(handler);
+        assertEquals(Arrays.asList("DOWN@" + pressTime, "LONG@" + (pressTime + LONG_PRESS_MS),
+                "UP@" + (releaseTime + DEBOUNCE_MS)), target.log);
+    }
+
+    /** A double press while the target is cold: the held PTT_DOWN is dropped, so no UP either. */
+    @Test
+    public void coldDoublePressSendsNothing() {
+        target.running = false;
+        handler.setColdStartHoldMs(COLD_START_HOLD_MS);
+        target.press(handler);
+        target.runTimer(handler);
+
+        target.now += DOUBLE_PRESS_WINDOW_MS / 2;
+        target.down(handler);
+        assertTrue(handler.isDownHeld());
+        target.now += 100;
+        handler.onUp(FakeTarget.PTT_KEYCODE, target.now);
+        target.runTimer(handler);
+        assertEquals(0, handler.getDownSignals());
+        assertEquals(1, handler.getDoublePresses());
+        assertFalse(handler.isDownHeld());
+        target.assertPaired();
+    }
+}
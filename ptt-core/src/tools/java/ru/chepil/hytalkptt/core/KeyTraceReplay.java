@@ -0,0 +1,110 @@
+package ru.chepil.hytalkptt.core;
+
+import java.io.BufferedInputStream;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Command-line replay of a captured key trace:
+ * <pre>
+ *   ./gradlew :ptt-core:replayKeyTrace -PreplayArgs="keytrace.bin --speed 0 --debounce 30"
+ * </pre>
+ * Options: --keys "228:ptt,521:emergency" (default 228:ptt), --speed N (1 = real time,
+ * default 0 = unpaced), --debounce ms, --max-press ms, --double-press ms, --long-press ms,
+ * --signals (print every PTT signal), --trace (print the press handler's trace).
+ *
+ * Prints the output signal counts, sequence violations and throughput; exits with
+ * status 1 if PTT_DOWN/PTT_UP do not alternate or the replay ends keyed up.
+ */
+public final class KeyTraceReplay {
+
+    private KeyTraceReplay() {}
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        if (args.length == 0) {
+            System.err.println("usage: KeyTraceReplay <trace.bin> [--keys k:a,...] [--speed N] [--debounce ms]"
+                    + " [--max-press ms] [--double-press ms] [--long-press ms] [--signals] [--trace]");
+            System.exit(2);
+        }
+        String keys = "228:ptt";
+        double speed = 0;
+        long debounceMs = 0;
+        long maxPressMs = 0;
+        long doublePressMs = 0;
+        long longPressMs = 0;
+        boolean printSignals = false;
+        boolean printTrace = false;
+        for (int i = 1; i < args.length; i++) {
+            String arg = args[i];
+            if ("--signals".equals(arg)) {
+                printSignals = true;
+            } else if ("--trace".equals(arg)) {
+                printTrace = true;
+            } else if (i + 1 < args.length) {
+                String value = args[++i];
+                if ("--keys".equals(arg)) {
+                    keys = value;
+                } else if ("--speed".equals(arg)) {
+                    speed = Double.parseDouble(value);
+                } else if ("--debounce".equals(arg)) {
+                    debounceMs = Long.parseLong(value);
+                } else if ("--max-press".equals(arg)) {
+                    maxPressMs = Long.parseLong(value);
+                } else if ("--double-press".equals(arg)) {
+                    doublePressMs = Long.parseLong(value);
+                } else if ("--long-press".equals(arg)) {
+                    longPressMs = Long.parseLong(value);
+                } else {
+                    System.err.println("Unknown option " + arg);
+                    System.exit(2);
+                }
+            } else {
+                System.err.println("Missing value for " + arg);
+                System.exit(2);
+            }
+        }
+
+        KeyTrace trace;
+        InputStream in = new BufferedInputStream(new FileInputStream(args[0]));
+        try {
+            trace = KeyTrace.read(in);
+        } finally {
+            in.close();
+        }
+
+        KeyTraceReplayer replayer = new KeyTraceReplayer(KeyActionTable.parse(keys));
+        PressHandler handler = replayer.getPressHandler();
+        handler.setReleaseDebounceMs(debounceMs);
+        handler.setMaxPressMs(maxPressMs);
+        handler.setDoublePressWindowMs(doublePressMs);
+        handler.setLongPressMs(longPressMs);
+        replayer.replay(trace, speed);
+
+        KeyTraceReplayer.Sink sink = replayer.getSink();
+        StringBuilder sb = new StringBuilder();
+        sb.append("events=").append(trace.size())
+                .append(" presses=").append(handler.getPresses())
+                .append(" launches=").append(sink.getLaunches())
+                .append(" signals=").append(sink.getSignals())
+                .append(" sideKeyActions=").append(replayer.getSideKeyActions())
+                .append(" debouncedReleases=").append(handler.getDebouncedReleases())
+                .append(" watchdogTimeouts=").append(handler.getWatchdogTimeouts()).append('\n');
+        long nanos = Math.max(1, replayer.getReplayNanos());
+        sb.append("replayed in ").append(nanos / 1000).append("us, ")
+                .append((long) (trace.size() * 1e9 / nanos)).append(" events/s\n");
+        int violations = sink.countViolations();
+        boolean endsKeyed = sink.endsKeyed();
+        sb.append("sequence violations=").append(violations).append(" endsKeyed=").append(endsKeyed).append('\n');
+        if (printSignals) {
+            sink.appendSignals(sb);
+        }
+        if (printTrace) {
+            handler.getTrace().appendTo(sb);
+        }
+        System.out.print(sb);
+        if (violations > 0 || endsKeyed) {
+            System.exit(1);
+        }
+    }
+}
@@ -0,0 +1,198 @@
+package ru.chepil.hytalkptt.core;
+
+/**
+ * Drives a PressHandler with a captured KeyTrace on a plain JVM, the way PttDispatcher
+ * does on the device: keys are resolved through the handler's key tables, PTT keys go
+ * to onDown()/onUp(), and due deadlines run onTimer() before each event. Launches and
+ * PTT signals go to a fake sink that records the output signal sequence.
+ *
+ * Time is virtual: the handler's clock follows the trace's received times, so decisions
+ * are the same at any speed. The speed only paces the wall clock: 1 replays in real time,
+ * 10 ten times faster, 0 as fast as possible (for throughput).
+ */
+public final class KeyTraceReplayer {
+
+    // Pending deadlines run after the last event (debounced releases, watchdog)
+    private static final int MAX_TRAILING_TIMERS = 64;
+
+    /** Fake launch target and PTT sender; records what the handler sent, and when. */
+    public static final class Sink implements LaunchTarget, SignalSender, Clock {
+
+        long now;
+        private long launches;
+        private long[] signalTimes = new long[64];
+        private boolean[] signalDowns = new boolean[64];
+        private int signals;
+
+        @Override
+        public boolean isAvailable() {
+            return true;
+        }
+
+        @Override
+        public boolean isRunning() {
+            return true;
+        }
+
+        @Override
+        public boolean launch() {
+            launches++;
+            return true;
+        }
+
+        @Override
+        public boolean sendPtt(boolean down) {
+            if (signals == signalTimes.length) {
+                long[] times = new long[signals * 2];
+                boolean[] downs = new boolean[signals * 2];
+                System.arraycopy(signalTimes, 0, times, 0, signals);
+                System.arraycopy(signalDowns, 0, downs, 0, signals);
+                signalTimes = times;
+                signalDowns = downs;
+            }
+            signalTimes[signals] = now;
+            signalDowns[signals] = down;
+            signals++;
+            return true;
+        }
+
+        @Override
+        public long uptimeMillis() {
+            return now;
+        }
+
+        public long getLaunches() {
+            return launches;
+        }
+
+        public int getSignals() {
+            return signals;
+        }
+
+        /**
+         * @return PTT_DOWN sent while already keyed up, plus PTT_UP sent while not keyed up
+         */
+        public int countViolations() {
+            int violations = 0;
+            boolean keyed = false;
+            for (int i = 0; i < signals; i++) {
+                if (signalDowns[i] == keyed) {
+                    violations++;
+                }
+                keyed = signalDowns[i];
+            }
+            return violations;
+        }
+
+        /** True if the last signal sent was PTT_DOWN: the radio would stay keyed up. */
+        public boolean endsKeyed() {
+            return signals > 0 && signalDowns[signals - 1];
+        }
+
+        /** One "time DOWN|UP" line per signal. */
+        public void appendSignals(StringBuilder sb) {
+            for (int i = 0; i < signals; i++) {
+                sb.append(signalTimes[i]).append(signalDowns[i] ? " DOWN\n" : " UP\n");
+            }
+        }
+    }
+
+    private final Sink sink = new Sink();
+    private final PressHandler pressHandler;
+
+    private long sideKeyActions;
+    private long replayNanos;
+
+    /**
+     * @param keyActions key mapping to replay with (as the key_actions setting)
+     */
+    public KeyTraceReplayer(KeyActionTable keyActions) {
+        pressHandler = new PressHandler(sink, sink, sink, keyActions.firstKeyFor(KeyActionTable.ACTION_PTT));
+        pressHandler.setKeyActions(keyActions);
+    }
+
+    /** For configuring debounce, cold-start hold, watchdog, gestures and device keys. */
+    public PressHandler getPressHandler() {
+        return pressHandler;
+    }
+
+    public Sink getSink() {
+        return sink;
+    }
+
+    /**
+     * Replays the trace into the handler.
+     *
+     * @param speed wall-clock speed-up over the trace's timing; 0 for no pacing
+     * @throws InterruptedException if interrupted while pacing
+     */
+    public void replay(KeyTrace trace, double speed) throws InterruptedException {
+        long started = System.nanoTime();
+        long firstTime = trace.size() > 0 ? trace.receivedTime(0) : 0;
+        for (int i = 0; i < trace.size(); i++) {
+            long time = trace.receivedTime(i);
+            if (speed > 0) {
+                pace(started, time - firstTime, speed);
+            }
+            runTimers(time);
+            sink.now = time;
+            dispatch(trace, i, time);
+        }
+        for (int n = 0; n < MAX_TRAILING_TIMERS; n++) {
+            long deadline = pressHandler.nextDeadline();
+            if (deadline == PressHandler.NO_DEADLINE) {
+                break;
+            }
+            sink.now = Math.max(sink.now, deadline);
+            pressHandler.onTimer(sink.now);
+        }
+        replayNanos += System.nanoTime() - started;
+    }
+
+    /** Side-key actions (emergency, channel) the trace triggered. */
+    public long getSideKeyActions() {
+        return sideKeyActions;
+    }
+
+    /** Wall time spent in replay(), including pacing. */
+    public long getReplayNanos() {
+        return replayNanos;
+    }
+
+    private void dispatch(KeyTrace trace, int i, long time) {
+        int keyCode = trace.keyCode(i);
+        int keyAction = pressHandler.actionFor(trace.deviceId(i), keyCode);
+        if (keyAction == KeyActionTable.ACTION_NONE) {
+            return;
+        }
+        boolean down = trace.action(i) == KeyTrace.ACTION_DOWN;
+        if (keyAction != KeyActionTable.ACTION_PTT) {
+            if (down && trace.repeatCount(i) == 0) {
+                sideKeyActions++;
+            }
+            return;
+        }
+        if (down) {
+            pressHandler.onDown(keyCode, trace.repeatCount(i), PressCoordinator.NO_GENERATION, trace.eventTime(i), time,
+                    false);
+        } else {
+            pressHandler.onUp(keyCode, trace.eventTime(i));
+        }
+    }
+
+    private void runTimers(long until) {
+        long deadline;
+        while ((deadline = pressHandler.nextDeadline()) <= until) {
+            sink.now = deadline;
+            pressHandler.onTimer(deadline);
+        }
+    }
+
+    private static void pace(long startedNanos, long traceMillis, double speed) throws InterruptedException {
+        long dueNanos = startedNanos + (long) (traceMillis * 1000000L / speed);
+        long waitNanos = dueNanos - System.nanoTime();
+        if (waitNanos > 0) {
+            Thread.sleep(waitNanos / 1000000L, (int) (waitNanos % 1000000L));
+        }
+    }
+}
@@ -0,0 +1,305 @@
+package ru.chepil.hytalkptt.core;
+
+import java.util.Random;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Multi-threaded stress run of the press path on a plain JVM:
+ * <pre>
+ *   ./gradlew :ptt-core:stressPressPath -PstressArgs="--seconds 10 --floor 10000"
+ * </pre>
+ * Stand-ins for the app's threads share one PressCoordinator and PressHandler, as on the device:
+ * <ul>
+ *   <li>input thread (PTTAccessibilityService.onKeyEvent / onInterrupt): fast taps,
+ *       chatter, held presses with autorepeat, and service interrupts, in random order;</li>
+ *   <li>dispatch thread (PttDispatcher): the only thread calling PressHandler, fed through a
+ *       bounded queue, with its single timer for debounce, gestures and the watchdog;</li>
+ *   <li>activity threads (MainActivity / PttLaunchActivity): join, claim the launch,
+ *       focus changes and leave, racing the key path.</li>
+ * </ul>
+ * Checks that the PTT signal stream alternates DOWN/UP, that it does not end keyed up,
+ * that no press generation was launched twice, and that the dispatch thread handled at
+ * least --floor events per second. Exits with status 1 if any check fails.
+ */
+public final class PressStress {
+
+    private static final int PTT_KEYCODE = 228;
+    private static final int QUEUE_CAPACITY = 1024;
+    // Launch counts are kept per generation up to this many presses
+    private static final int MAX_GENERATIONS = 1 << 22;
+
+    private static final int EVENT_DOWN = 0;
+    private static final int EVENT_UP = 1;
+    private static final int EVENT_FLUSH = 2;
+    private static final int EVENT_STOP = 3;
+
+    /** One queued dispatcher message. */
+    private static final class Event {
+        final int type;
+        final int repeatCount;
+        // Press generation the input thread got from keyDown(), for DOWNs
+        final long generation;
+        final long eventTime;
+
+        Event(int type, int repeatCount, long generation, long eventTime) {
+            this.type = type;
+            this.repeatCount = repeatCount;
+            this.generation = generation;
+            this.eventTime = eventTime;
+        }
+    }
+
+    /** Clock in uptime-like millis, and the fake target; launches counted per generation. */
+    private static final class Sink implements LaunchTarget, SignalSender, Clock {
+        private final long origin = System.nanoTime();
+        private final AtomicIntegerArray launchesPerGeneration;
+        private PressHandler handler;
+        // Dispatch thread only
+        private boolean keyed;
+        private long signals;
+        private long violations;
+
+        Sink(AtomicIntegerArray launchesPerGeneration) {
+            this.launchesPerGeneration = launchesPerGeneration;
+        }
+
+        @Override
+        public boolean isAvailable() {
+            return true;
+        }
+
+        @Override
+        public boolean isRunning() {
+            return true;
+        }
+
+        @Override
+        public boolean launch() {
+            countLaunch(launchesPerGeneration, handler.getPressGeneration());
+            return true;
+        }
+
+        @Override
+        public boolean sendPtt(boolean down) {
+            if (down == keyed) {
+                violations++;
+            }
+            keyed = down;
+            signals++;
+            return true;
+        }
+
+        @Override
+        public long uptimeMillis() {
+            return (System.nanoTime() - origin) / 1000000L;
+        }
+    }
+
+    private PressStress() {}
+
+    public static void main(String[] args) throws InterruptedException {
+        long seconds = 5;
+        int activityThreads = 2;
+        long floor = 10000;
+        long seed = System.nanoTime();
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            if ("--seconds".equals(args[i])) {
+                seconds = Long.parseLong(args[i + 1]);
+            } else if ("--activities".equals(args[i])) {
+                activityThreads = Integer.parseInt(args[i + 1]);
+            } else if ("--floor".equals(args[i])) {
+                floor = Long.parseLong(args[i + 1]);
+            } else if ("--seed".equals(args[i])) {
+                seed = Long.parseLong(args[i + 1]);
+            } else {
+                System.err.println("usage: PressStress [--seconds N] [--activities N] [--floor events/s] [--seed N]");
+                System.exit(2);
+            }
+        }
+
+        final PressCoordinator coordinator = new PressCoordinator();
+        final AtomicIntegerArray launchesPerGeneration = new AtomicIntegerArray(MAX_GENERATIONS);
+        final Sink sink = new Sink(launchesPerGeneration);
+        final PressHandler handler = new PressHandler(sink, sink, sink, PTT_KEYCODE);
+        sink.handler = handler;
+        handler.setPressCoordinator(coordinator);
+        handler.setReleaseDebounceMs(5);
+        handler.setMaxPressMs(10);
+        handler.setDoublePressWindowMs(3);
+        handler.setLongPressMs(4);
+        final BlockingQueue<Event> queue = new ArrayBlockingQueue<Event>(QUEUE_CAPACITY);
+        final AtomicLong dispatched = new AtomicLong();
+        final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(seconds);
+
+        Thread dispatch = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    for (;;) {
+                        long next = handler.nextDeadline();
+                        Event event;
+                        if (next == PressHandler.NO_DEADLINE) {
+                            event = queue.take();
+                        } else {
+                            event = queue.poll(Math.max(0, next - sink.uptimeMillis()), TimeUnit.MILLISECONDS);
+                        }
+                        if (event == null) {
+                            handler.onTimer(sink.uptimeMillis());
+                            continue;
+                        }
+                        long now = sink.uptimeMillis();
+                        if (next <= now) {
+                            handler.onTimer(now);
+                        }
+                        switch (event.type) {
+                            case EVENT_DOWN:
+                                handler.onDown(PTT_KEYCODE, event.repeatCount, event.generation, event.eventTime, now, false);
+                                break;
+                            case EVENT_UP:
+                                handler.onUp(PTT_KEYCODE, event.eventTime);
+                                break;
+                            case EVENT_FLUSH:
+                                handler.flush();
+                                break;
+                            default:
+                                handler.flush();
+                                return;
+                        }
+                        dispatched.incrementAndGet();
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }, "PttDispatch");
+
+        final Random inputRandom = new Random(seed);
+        Thread input = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                long pressGeneration = PressCoordinator.NO_GENERATION;
+                try {
+                    while (System.nanoTime() < deadline) {
+                        int kind = inputRandom.nextInt(100);
+                        if (kind < 3) {
+                            // Service interrupted mid-press
+                            queue.put(new Event(EVENT_FLUSH, 0, PressCoordinator.NO_GENERATION, sink.uptimeMillis()));
+                            coordinator.keyUp(pressGeneration, sink.uptimeMillis());
+                            continue;
+                        }
+                        pressGeneration = coordinator.keyDown();
+                        queue.put(new Event(EVENT_DOWN, 0, pressGeneration, sink.uptimeMillis()));
+                        if (kind < 4) {
+                            // Held press: autorepeat across the long-press time, sometimes past the watchdog
+                            int repeats = 1 + inputRandom.nextInt(12);
+                            for (int repeat = 1; repeat <= repeats; repeat++) {
+                                Thread.sleep(1);
+                                queue.put(new Event(EVENT_DOWN, repeat, pressGeneration, sink.uptimeMillis()));
+                            }
+                        } else if (kind < 25) {
+                            // Chatter: short UP/DOWN bounces inside the debounce window
+                            coordinator.keyUp(pressGeneration, sink.uptimeMillis());
+                            queue.put(new Event(EVENT_UP, 0, pressGeneration, sink.uptimeMillis()));
+                            pressGeneration = coordinator.keyDown();
+                            queue.put(new Event(EVENT_DOWN, 0, pressGeneration, sink.uptimeMillis()));
+                        }
+                        if (inputRandom.nextInt(50) != 0) {
+                            // Occasionally the UP is lost
+                            coordinator.keyUp(pressGeneration, sink.uptimeMillis());
+                            queue.put(new Event(EVENT_UP, 0, pressGeneration, sink.uptimeMillis()));
+                        }
+                    }
+                    queue.put(new Event(EVENT_STOP, 0, PressCoordinator.NO_GENERATION, sink.uptimeMillis()));
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }, "Input");
+
+        Thread[] activities = new Thread[activityThreads];
+        for (int n = 0; n < activityThreads; n++) {
+            final Random random = new Random(seed + n + 1);
+            activities[n] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    while (System.nanoTime() < deadline) {
+                        // onCreate from Programmable Keys, then focus changes, then onDestroy
+                        long generation = coordinator.join(sink.uptimeMillis());
+                        if (coordinator.claimLaunch(generation)) {
+                            countLaunch(launchesPerGeneration, generation);
+                        }
+                        if (random.nextBoolean() && coordinator.isPressed()) {
+                            long focused = coordinator.generation();
+                            if (coordinator.claimLaunch(focused)) {
+                                countLaunch(launchesPerGeneration, focused);
+                            }
+                        }
+                        coordinator.leave(generation);
+                        try {
+                            // Activity starts are far rarer than key events
+                            Thread.sleep(1);
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                            return;
+                        }
+                    }
+                }
+            }, "Activity-" + n);
+        }
+
+        long started = System.nanoTime();
+        dispatch.start();
+        input.start();
+        for (Thread activity : activities) {
+            activity.start();
+        }
+        input.join();
+        for (Thread activity : activities) {
+            activity.join();
+        }
+        dispatch.join();
+        long nanos = System.nanoTime() - started;
+
+        long duplicateLaunches = 0;
+        for (int g = 0; g < MAX_GENERATIONS; g++) {
+            if (launchesPerGeneration.get(g) > 1) {
+                duplicateLaunches++;
+            }
+        }
+        long rate = (long) (dispatched.get() * 1e9 / nanos);
+        boolean passed = sink.violations == 0 && !sink.keyed && duplicateLaunches == 0 && rate >= floor;
+
+        StringBuilder sb = new StringBuilder();
+        sb.append("seed=").append(seed).append(" seconds=").append(seconds)
+                .append(" activityThreads=").append(activityThreads).append('\n');
+        sb.append("events=").append(dispatched.get()).append(" rate=").append(rate).append("/s (floor ")
+                .append(floor).append(")\n");
+        sb.append("presses=").append(handler.getPresses()).append(" signals=").append(sink.signals)
+                .append(" launches=").append(handler.getLaunches())
+                .append(" launchesClaimedElsewhere=").append(handler.getLaunchesClaimedElsewhere())
+                .append(" duplicateLaunchesAvoided=").append(coordinator.getDuplicateLaunches())
+                .append(" staleTransitions=").append(coordinator.getStaleTransitions()).append('\n');
+        sb.append("debouncedReleases=").append(handler.getDebouncedReleases())
+                .append(" watchdogTimeouts=").append(handler.getWatchdogTimeouts())
+                .append(" lifecycleReleases=").append(handler.getWatchdogLifecycleReleases())
+                .append(" doublePresses=").append(handler.getDoublePresses())
+                .append(" longPresses=").append(handler.getLongPresses()).append('\n');
+        sb.append("sequence violations=").append(sink.violations).append(" endsKeyed=").append(sink.keyed)
+                .append(" duplicateLaunches=").append(duplicateLaunches).append('\n');
+        sb.append(passed ? "PASSED\n" : "FAILED\n");
+        System.out.print(sb);
+        if (!passed) {
+            System.exit(1);
+        }
+    }
+
+    private static void countLaunch(AtomicIntegerArray launchesPerGeneration, long generation) {
+        if (generation > 0 && generation < MAX_GENERATIONS) {
+            launchesPerGeneration.incrementAndGet((int) generation);
+        }
+    }
+}